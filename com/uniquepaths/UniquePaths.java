@@ -8,8 +8,10 @@ import com.uniquepaths.util.Edge;
 import com.uniquepaths.util.Graph;
 import com.uniquepaths.util.Node;
 import com.uniquepaths.util.PathApproximation;
+import com.uniquepaths.util.PathEstimators;
 import com.uniquepaths.util.PathFinder;
 import com.uniquepaths.util.SCC;
+import com.uniquepaths.util.StrategyPlanner;
 import com.uniquepaths.util.StronglyConnectedComponents;
 
 import java.io.File;
@@ -50,9 +52,11 @@ public class UniquePaths {
     int superE;
     String[] phase1Args = Arrays.copyOfRange(args, 3, 5);
     String[] phase2Args = Arrays.copyOfRange(args, 5, 7);
-    Graph<Integer> graph = readGraphFromFile(args[0]);
     int s = Integer.parseInt(args[1]);
     int e = Integer.parseInt(args[2]);
+    // Only vertices on some path from s to e are decomposed and estimated.
+    Graph<Integer> graph
+        = readGraphFromFile(args[0]).relevantSubgraph(s, e);
     List<SCC<Integer>> sccs
         = StronglyConnectedComponents.getStronglyConnectedComponents(graph);
     for (SCC<Integer> scc : sccs) {
@@ -74,7 +78,7 @@ public class UniquePaths {
       }
     }
     List<SCC<Integer>> permutations
-        = StronglyConnectedComponents.getPermutedSCCs(sccs);
+        = StronglyConnectedComponents.getInNodePermutedSCCs(sccs);
     writeToInputFile(permutations);
     mapReducePathFinder(phase1Args);
     mapReduceAggregator(phase2Args);
@@ -89,7 +93,7 @@ public class UniquePaths {
     System.out.println("MapReduce Results: ");
     System.out.println("\tNumber of Paths: " + result[0]);
     System.out.println("\tAverage length of paths: " + result[1]);
-    result = PathFinder.uniquePaths(graph, s, e);
+    result = PathFinder.uniquePathsParallel(graph.getCompactGraph(), s, e);
     System.out.println("Actual Results: ");
     System.out.println("\tNumber of Paths: " + result[0]);
     System.out.println("\tAverage length of paths: " + result[1]);
@@ -177,6 +181,14 @@ public class UniquePaths {
 
     try {
       conf = new Configuration();
+      // The engine GraphReducer samples with, see PathEstimators, and the
+      // cost factors its planner starts from, see StrategyPlanner.
+      conf.set(PathEstimators.CONFIG_KEY, System.getProperty(
+          PathEstimators.CONFIG_KEY, StrategyPlanner.DEFAULT_SAMPLER));
+      if (System.getProperty(StrategyPlanner.CONFIG_KEY) != null) {
+        conf.set(StrategyPlanner.CONFIG_KEY,
+            System.getProperty(StrategyPlanner.CONFIG_KEY));
+      }
       optionParser = new GenericOptionsParser(conf, args);
       remainingArgs = optionParser.getRemainingArgs();
       if (!(remainingArgs.length != 2 || remainingArgs.length != 4)) {
@@ -264,7 +276,7 @@ public class UniquePaths {
     String[] line;
     SCC<Integer> scc;
     int pos;
-    int totalNumPaths;
+    double totalNumPaths;
     double totalAvgPathLen;
     try {
       file = new File("uniquepaths/outputPhase2/part-r-00000");
@@ -273,7 +285,7 @@ public class UniquePaths {
         line = scan.nextLine().split(" ", 2);
         pos = Integer.parseInt(line[0]);
         scc = sccList.get(pos);
-        totalNumPaths = (int) Double.parseDouble(line[1].split(":")[1].trim());
+        totalNumPaths = Double.parseDouble(line[1].split(":")[1].trim());
         line = scan.nextLine().split(" ", 2);
         totalAvgPathLen = Double.parseDouble(line[1].split(":")[1].trim());
         scc.setTotalNumberPaths(totalNumPaths);
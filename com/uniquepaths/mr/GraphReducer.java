@@ -1,6 +1,8 @@
 package com.uniquepaths.mr;
 
+import com.uniquepaths.util.PathEstimators;
 import com.uniquepaths.util.SCC;
+import com.uniquepaths.util.StrategyPlanner;
 
 import java.io.IOException;
 
@@ -12,15 +14,39 @@ import org.apache.hadoop.mapreduce.Reducer;
 public class GraphReducer
       extends Reducer<IntWritable, Text, Text, DoubleWritable> {
 
+  private StrategyPlanner planner;
+
+  @Override
+  protected void setup(Context context)
+      throws IOException, InterruptedException {
+    String calibration = context.getConfiguration().get(
+        StrategyPlanner.CONFIG_KEY);
+    planner = new StrategyPlanner(PathEstimators.forName(
+        context.getConfiguration().get(PathEstimators.CONFIG_KEY,
+            StrategyPlanner.DEFAULT_SAMPLER)));
+    if (calibration != null) {
+      planner.setCalibration(calibration);
+    }
+  }
+
+  @Override
+  protected void cleanup(Context context)
+      throws IOException, InterruptedException {
+    // The plans go to the task log; the output is read by the aggregator.
+    System.err.print(planner.explain());
+  }
+
   @Override
   public void reduce(IntWritable key, Iterable<Text> values,
       Context context) throws IOException, InterruptedException {
     StringBuilder strBldr;
     Text outputKey;
     SCC<Integer> scc = constructSCC(values);
-    scc.computeInternalDistances();
+    planner.run(scc);
     double totalNumPaths = scc.getTotalNumberPaths();
-    double avgPathLen = scc.getTotalAvgPathLength();
+    // AggregatorReducer divides the summed lengths by the summed counts,
+    // so the length is emitted weighted by the number of paths.
+    double pathLenSum = totalNumPaths * scc.getTotalAvgPathLength();
     strBldr = new StringBuilder();
     strBldr.append(scc.getSccId());
     strBldr.append(": number ");
@@ -30,7 +56,7 @@ public class GraphReducer
     strBldr.append(scc.getSccId());
     strBldr.append(": length ");
     outputKey = new Text(strBldr.toString());
-    context.write(outputKey, new DoubleWritable(avgPathLen));
+    context.write(outputKey, new DoubleWritable(pathLenSum));
   }
 
   private static SCC<Integer> constructSCC(Iterable<Text> values) {
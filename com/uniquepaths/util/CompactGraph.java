@@ -0,0 +1,352 @@
+package com.uniquepaths.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, int-indexed view of a graph stored in compressed sparse row
+ * form. Every vertex is assigned a dense id in <code>[0, size())</code> and
+ * the out-edges of vertex <code>v</code> occupy the edge indices
+ * <code>[edgeStart(v), edgeEnd(v))</code> of the target and weight arrays.
+ *
+ * Values of type <code>T</code> are only consulted when translating to and
+ * from ids; the traversal methods work entirely on primitive ints.
+ */
+public class CompactGraph<T> {
+
+  private final List<T> values;
+  private final Map<T, Integer> indices;
+  private final int[] offsets;
+  private final int[] targets;
+  private final int[] weights;
+  private volatile int[] inOffsets;
+  private int[] sources;
+  private int[] inWeights;
+  private volatile CompactGraph<T> reversed;
+
+  CompactGraph(List<T> values, Map<T, Integer> indices, int[] offsets,
+      int[] targets, int[] weights) {
+    this.values = values;
+    this.indices = indices;
+    this.offsets = offsets;
+    this.targets = targets;
+    this.weights = weights;
+  }
+
+  /**
+   * Builds a compact graph from an edge list. Vertex ids are assigned in
+   * order of first appearance and repeated edges are dropped, as by
+   * {@link Graph#addEdge(Object, Object, int)}, keeping the weight of the
+   * first. Unlike the edges of a {@link Graph}, which always weigh 1, the
+   * weights of the list are kept.
+   */
+  public static <T> CompactGraph<T> fromEdges(List<Edge<T>> edges) {
+    return fromEdges(Collections.<T>emptyList(), edges);
+  }
+
+  /**
+   * Builds a compact graph from an edge list, numbering the given vertices
+   * first so that vertices without any edges are kept as well.
+   */
+  public static <T> CompactGraph<T> fromEdges(Collection<T> vertices,
+      List<Edge<T>> edges) {
+    List<T> values = new ArrayList<>(vertices.size());
+    Map<T, Integer> indices = new HashMap<>();
+    int m = edges.size();
+    int[] from = new int[m];
+    int[] to = new int[m];
+    int[] weight = new int[m];
+    Edge<T> edge;
+    for (T vertex : vertices) {
+      idFor(vertex, values, indices);
+    }
+    for (int i = 0; i < m; ++i) {
+      edge = edges.get(i);
+      from[i] = idFor(edge.from, values, indices);
+      to[i] = idFor(edge.to, values, indices);
+      weight[i] = edge.weight == null ? 1 : edge.weight;
+    }
+    return build(values, indices, from, to, weight, m);
+  }
+
+  /**
+   * Builds a compact graph holding the same vertices and edges as
+   * <code>graph</code>. Vertex ids follow the iteration order of
+   * {@link Graph#getNodes()}.
+   */
+  public static <T> CompactGraph<T> fromGraph(Graph<T> graph) {
+    List<T> values = new ArrayList<>(graph.size());
+    Map<T, Integer> indices = new HashMap<>();
+    int m = 0;
+    for (Map.Entry<T, Node<T>> entry : graph.getNodes()) {
+      idFor(entry.getKey(), values, indices);
+      m += entry.getValue().getEdges().size();
+    }
+    int[] from = new int[m];
+    int[] to = new int[m];
+    int[] weight = new int[m];
+    int i = 0;
+    for (Map.Entry<T, Node<T>> entry : graph.getNodes()) {
+      for (Map.Entry<Node<T>, Integer> edge : entry.getValue().getEdges()) {
+        from[i] = indices.get(entry.getKey());
+        to[i] = idFor(edge.getKey().getValue(), values, indices);
+        weight[i] = edge.getValue();
+        ++i;
+      }
+    }
+    return build(values, indices, from, to, weight, m);
+  }
+
+  private static <T> int idFor(T value, List<T> values,
+      Map<T, Integer> indices) {
+    Integer id = indices.get(value);
+    if (id == null) {
+      id = values.size();
+      values.add(value);
+      indices.put(value, id);
+    }
+    return id;
+  }
+
+  private static <T> CompactGraph<T> build(List<T> values,
+      Map<T, Integer> indices, int[] from, int[] to, int[] weight, int m) {
+    int n = values.size();
+    int[] offsets = new int[n + 1];
+    int[] fill = new int[n];
+    int[] seen = new int[n];
+    int[] targets;
+    int[] weights;
+    int kept = 0;
+    int pos;
+
+    // Counting sort of the edges by source keeps each row in input order.
+    for (int i = 0; i < m; ++i) {
+      ++offsets[from[i] + 1];
+    }
+    for (int v = 0; v < n; ++v) {
+      offsets[v + 1] += offsets[v];
+    }
+    int[] rowTargets = new int[m];
+    int[] rowWeights = new int[m];
+    for (int i = 0; i < m; ++i) {
+      pos = offsets[from[i]] + fill[from[i]]++;
+      rowTargets[pos] = to[i];
+      rowWeights[pos] = weight[i];
+    }
+
+    // Drop repeated edges in a single pass; seen[w] holds the last row
+    // (offset by one) in which w appeared as a target.
+    targets = new int[m];
+    weights = new int[m];
+    int rowStart;
+    for (int v = 0; v < n; ++v) {
+      rowStart = offsets[v];
+      offsets[v] = kept;
+      for (int e = rowStart; e < offsets[v + 1]; ++e) {
+        if (seen[rowTargets[e]] != v + 1) {
+          seen[rowTargets[e]] = v + 1;
+          targets[kept] = rowTargets[e];
+          weights[kept] = rowWeights[e];
+          ++kept;
+        }
+      }
+    }
+    offsets[n] = kept;
+    if (kept < m) {
+      int[] trimmed = new int[kept];
+      System.arraycopy(targets, 0, trimmed, 0, kept);
+      targets = trimmed;
+      trimmed = new int[kept];
+      System.arraycopy(weights, 0, trimmed, 0, kept);
+      weights = trimmed;
+    }
+    return new CompactGraph<>(values, indices, offsets, targets, weights);
+  }
+
+  public int size() {
+    return values.size();
+  }
+
+  public int edgeCount() {
+    return targets.length;
+  }
+
+  /** Returns the id of <code>value</code>, or -1 if it is not a vertex. */
+  public int indexOf(T value) {
+    Integer id = indices.get(value);
+    return id == null ? -1 : id;
+  }
+
+  public T valueOf(int v) {
+    return values.get(v);
+  }
+
+  public int outDegree(int v) {
+    return offsets[v + 1] - offsets[v];
+  }
+
+  /** First edge index of the out-edges of <code>v</code>. */
+  public int edgeStart(int v) {
+    return offsets[v];
+  }
+
+  /** One past the last edge index of the out-edges of <code>v</code>. */
+  public int edgeEnd(int v) {
+    return offsets[v + 1];
+  }
+
+  public int target(int e) {
+    return targets[e];
+  }
+
+  public int weight(int e) {
+    return weights[e];
+  }
+
+  public int inDegree(int v) {
+    int[] in = inOffsets();
+    return in[v + 1] - in[v];
+  }
+
+  /**
+   * First in-edge index of <code>v</code>. The in-edge index is built on
+   * first use and shared by every caller afterwards.
+   */
+  public int inEdgeStart(int v) {
+    return inOffsets()[v];
+  }
+
+  /** One past the last in-edge index of <code>v</code>. */
+  public int inEdgeEnd(int v) {
+    return inOffsets()[v + 1];
+  }
+
+  public int source(int e) {
+    return sources[e];
+  }
+
+  public int inWeight(int e) {
+    return inWeights[e];
+  }
+
+  private int[] inOffsets() {
+    int[] in = inOffsets;
+    if (in == null) {
+      buildInEdges();
+      in = inOffsets;
+    }
+    return in;
+  }
+
+  /** Builds the compressed sparse column (in-edge) arrays once. */
+  public synchronized void buildInEdges() {
+    if (inOffsets != null) {
+      return;
+    }
+    int n = size();
+    int[] offsets = new int[n + 1];
+    int[] fill = new int[n];
+    int[] from = new int[targets.length];
+    int[] weight = new int[targets.length];
+    int pos;
+    for (int e = 0; e < targets.length; ++e) {
+      ++offsets[targets[e] + 1];
+    }
+    for (int v = 0; v < n; ++v) {
+      offsets[v + 1] += offsets[v];
+    }
+    for (int u = 0; u < n; ++u) {
+      for (int e = this.offsets[u]; e < this.offsets[u + 1]; ++e) {
+        pos = offsets[targets[e]] + fill[targets[e]]++;
+        from[pos] = u;
+        weight[pos] = weights[e];
+      }
+    }
+    sources = from;
+    inWeights = weight;
+    inOffsets = offsets;
+  }
+
+  /**
+   * The transposed graph, with the same vertex ids and every edge turned
+   * around, sharing the arrays of this graph. It is built on first use and
+   * its own reversal is this graph.
+   */
+  public CompactGraph<T> reversed() {
+    CompactGraph<T> r = reversed;
+    if (r == null) {
+      synchronized (this) {
+        if (reversed == null) {
+          buildInEdges();
+          r = new CompactGraph<>(values, indices, inOffsets, sources,
+              inWeights);
+          r.sources = targets;
+          r.inWeights = weights;
+          r.inOffsets = offsets;
+          r.reversed = this;
+          reversed = r;
+        }
+        r = reversed;
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Marks the vertices with a path to one of <code>ends</code>, by a
+   * backward search over the in-edges. Run on {@link #reversed()} it marks
+   * the vertices reachable from them instead.
+   */
+  public boolean[] coReachable(int[] ends) {
+    boolean[] reaches = new boolean[size()];
+    int[] queue = new int[size()];
+    int head = 0;
+    int tail = 0;
+    int curr;
+    int pred;
+    for (int end : ends) {
+      if (!reaches[end]) {
+        reaches[end] = true;
+        queue[tail++] = end;
+      }
+    }
+    while (head < tail) {
+      curr = queue[head++];
+      for (int i = inEdgeStart(curr); i < inEdgeEnd(curr); ++i) {
+        pred = source(i);
+        if (!reaches[pred]) {
+          reaches[pred] = true;
+          queue[tail++] = pred;
+        }
+      }
+    }
+    return reaches;
+  }
+
+  public boolean hasEdge(int u, int v) {
+    for (int e = offsets[u]; e < offsets[u + 1]; ++e) {
+      if (targets[e] == v) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public String toString() {
+    StringBuilder strBldr = new StringBuilder();
+    for (int v = 0; v < size(); ++v) {
+      strBldr.append(valueOf(v));
+      strBldr.append(" :");
+      for (int e = offsets[v]; e < offsets[v + 1]; ++e) {
+        strBldr.append(" ");
+        strBldr.append(valueOf(targets[e]));
+      }
+      strBldr.append("\n");
+    }
+    return strBldr.toString();
+  }
+}
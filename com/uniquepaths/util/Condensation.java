@@ -0,0 +1,190 @@
+package com.uniquepaths.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The condensed DAG of a {@link CompactGraph}, in which every strongly
+ * connected component is a single vertex.
+ *
+ * The condensed graph is itself a {@link CompactGraph} over component ids
+ * whose edge weights are the number of original edges joining the two
+ * components. For every condensed edge <code>k</code> the original
+ * boundary edges it stands for are listed in
+ * <code>[boundaryStart(k), boundaryEnd(k))</code>, each as a source vertex
+ * and the index of the original edge.
+ */
+public class Condensation<T> {
+
+  private final CompactGraph<T> graph;
+  private final int[] component;
+  private final CompactGraph<Integer> dag;
+  private final int[] boundaryOffsets;
+  private final int[] boundarySources;
+  private final int[] boundaryEdges;
+
+  /**
+   * Contracts <code>graph</code> in time linear in its size; every
+   * original edge is inspected once.
+   *
+   * @param graph the graph to contract.
+   * @param component the component id of every vertex of
+   *     <code>graph</code>, as produced by
+   *     {@link StronglyConnectedComponents#getComponentIds}.
+   * @param count the number of components.
+   *
+   */
+  public Condensation(CompactGraph<T> graph, int[] component, int count) {
+    int n = graph.size();
+    int[] crossOffsets = new int[count + 1];
+    int[] crossSources;
+    int[] crossEdges;
+    int[] crossDag;
+    int[] fill = new int[count];
+    int[] mark = new int[count];
+    int[] slot = new int[count];
+    int[] dagOffsets = new int[count + 1];
+    int[] dagTargets;
+    int[] multiplicity;
+    int crossCount = 0;
+    int dagCount = 0;
+    int pos;
+    int c;
+    int d;
+
+    this.graph = graph;
+    this.component = component;
+
+    // Single pass over the edges, bucketing the ones that cross components
+    // by the component they leave.
+    for (int u = 0; u < n; ++u) {
+      for (int e = graph.edgeStart(u); e < graph.edgeEnd(u); ++e) {
+        if (component[graph.target(e)] != component[u]) {
+          ++crossOffsets[component[u] + 1];
+          ++crossCount;
+        }
+      }
+    }
+    for (c = 0; c < count; ++c) {
+      crossOffsets[c + 1] += crossOffsets[c];
+    }
+    crossSources = new int[crossCount];
+    crossEdges = new int[crossCount];
+    for (int u = 0; u < n; ++u) {
+      for (int e = graph.edgeStart(u); e < graph.edgeEnd(u); ++e) {
+        if (component[graph.target(e)] != component[u]) {
+          pos = crossOffsets[component[u]] + fill[component[u]]++;
+          crossSources[pos] = u;
+          crossEdges[pos] = e;
+        }
+      }
+    }
+
+    // Merge the crossing edges of each component by target component;
+    // mark[d] remembers (offset by one) the last source component that
+    // created a condensed edge to d.
+    crossDag = new int[crossCount];
+    dagTargets = new int[crossCount];
+    multiplicity = new int[crossCount];
+    for (c = 0; c < count; ++c) {
+      dagOffsets[c] = dagCount;
+      for (int i = crossOffsets[c]; i < crossOffsets[c + 1]; ++i) {
+        d = component[graph.target(crossEdges[i])];
+        if (mark[d] != c + 1) {
+          mark[d] = c + 1;
+          slot[d] = dagCount;
+          dagTargets[dagCount++] = d;
+        }
+        ++multiplicity[slot[d]];
+        crossDag[i] = slot[d];
+      }
+    }
+    dagOffsets[count] = dagCount;
+
+    // Group the boundary edges by condensed edge.
+    boundaryOffsets = new int[dagCount + 1];
+    boundarySources = new int[crossCount];
+    boundaryEdges = new int[crossCount];
+    for (int k = 0; k < dagCount; ++k) {
+      boundaryOffsets[k + 1] = boundaryOffsets[k] + multiplicity[k];
+    }
+    fill = Arrays.copyOf(boundaryOffsets, dagCount);
+    for (int i = 0; i < crossCount; ++i) {
+      pos = fill[crossDag[i]]++;
+      boundarySources[pos] = crossSources[i];
+      boundaryEdges[pos] = crossEdges[i];
+    }
+
+    List<Integer> ids = new ArrayList<>(count);
+    Map<Integer, Integer> indices = new HashMap<>();
+    for (c = 0; c < count; ++c) {
+      ids.add(c);
+      indices.put(c, c);
+    }
+    dag = new CompactGraph<>(ids, indices, dagOffsets,
+        Arrays.copyOf(dagTargets, dagCount),
+        Arrays.copyOf(multiplicity, dagCount));
+  }
+
+  public CompactGraph<T> getGraph() {
+    return graph;
+  }
+
+  /**
+   * The condensed DAG over component ids. The weight of each edge is the
+   * number of original edges it replaces.
+   */
+  public CompactGraph<Integer> getDag() {
+    return dag;
+  }
+
+  public int getComponent(int v) {
+    return component[v];
+  }
+
+  public int componentCount() {
+    return dag.size();
+  }
+
+  /**
+   * Index of the condensed edge from <code>c</code> to <code>d</code>, or
+   * -1 if the components are not adjacent.
+   */
+  public int findEdge(int c, int d) {
+    for (int k = dag.edgeStart(c); k < dag.edgeEnd(c); ++k) {
+      if (dag.target(k) == d) {
+        return k;
+      }
+    }
+    return -1;
+  }
+
+  public int multiplicity(int k) {
+    return dag.weight(k);
+  }
+
+  public int boundaryStart(int k) {
+    return boundaryOffsets[k];
+  }
+
+  public int boundaryEnd(int k) {
+    return boundaryOffsets[k + 1];
+  }
+
+  /** Vertex of the source component at which boundary edge i starts. */
+  public int boundarySource(int i) {
+    return boundarySources[i];
+  }
+
+  /** Vertex of the target component at which boundary edge i ends. */
+  public int boundaryTarget(int i) {
+    return graph.target(boundaryEdges[i]);
+  }
+
+  public int boundaryWeight(int i) {
+    return graph.weight(boundaryEdges[i]);
+  }
+}
@@ -0,0 +1,30 @@
+package com.uniquepaths.util;
+
+import java.util.List;
+
+/** The importance sampler of {@link CrossEntropySampling}, once per end. */
+public class CrossEntropyEstimator extends SamplingEstimator {
+
+  public CrossEntropyEstimator() {
+    this(PathApproximation.DEFAULT_RELATIVE_ERROR,
+        PathApproximation.DEFAULT_CONFIDENCE, PathApproximation.MIN_SAMPLES,
+        PathApproximation.MAX_SAMPLES);
+  }
+
+  public CrossEntropyEstimator(double relativeError, double confidence,
+      int minSamples, int maxSamples) {
+    super(relativeError, confidence, minSamples, maxSamples);
+  }
+
+  @Override
+  public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    PathEstimate[] estimates = new PathEstimate[ends.size()];
+    for (int i = 0; i < estimates.length; ++i) {
+      estimates[i] = CrossEntropySampling.estimate(graph, start,
+          ends.get(i), nextSeed(), relativeError, confidence, minSamples,
+          maxSamples);
+    }
+    return estimates;
+  }
+}
@@ -0,0 +1,384 @@
+package com.uniquepaths.util;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Importance sampling estimator for the number and average length of the
+ * simple paths between two vertices, with transition probabilities learnt
+ * by the cross-entropy method.
+ *
+ * Every edge carries a probability <code>q</code>; a walk at vertex
+ * <code>v</code> moves along one of the edges to unvisited vertices that
+ * can still reach the end, chosen with probability proportional to
+ * <code>q</code>. Starting from uniform probabilities, each of
+ * {@link #ITERATIONS} rounds of walks sets the probability of every edge
+ * towards the share of the weighted successful walks through its source
+ * that continued along it, which moves the sampler towards the uniform
+ * distribution over paths. Edges keep a positive probability throughout,
+ * so the final estimate stays unbiased.
+ *
+ * Next steps are drawn from per-vertex alias tables over
+ * <code>q</code>, rejecting visited targets; after a few rejections the
+ * step falls back to a linear scan. The probability mass of the visited
+ * targets of each vertex is maintained as vertices are visited, so the
+ * likelihood of a step is known without scanning.
+ */
+public class CrossEntropySampling {
+
+  public static final int ITERATIONS = 5;
+  public static final int ITERATION_SAMPLES = 1000;
+  private static final double SMOOTHING = 0.7;
+  private static final int MAX_REJECTIONS = 8;
+  private static Random generator = new Random();
+
+  public static <T> double[] lengthDistribution(CompactGraph<T> graph,
+      T start, T end) {
+    return estimate(graph, start, end, generator.nextLong(),
+        PathApproximation.DEFAULT_RELATIVE_ERROR,
+        PathApproximation.DEFAULT_CONFIDENCE, PathApproximation.MIN_SAMPLES,
+        PathApproximation.MAX_SAMPLES).toArray();
+  }
+
+  /**
+   * Learns the transition probabilities and then estimates the paths from
+   * <code>start</code> to <code>end</code>, sampling adaptively as in
+   * {@link PathApproximation#estimate(CompactGraph, Object, Object, long,
+   * double, double, int, int)}; the parameters are the same.
+   */
+  public static <T> PathEstimate estimate(CompactGraph<T> graph, T start,
+      T end, long seed, double relativeError, double confidence,
+      int minSamples, int maxSamples) {
+    SplittableRandom root = new SplittableRandom(seed);
+    double z = PathApproximation.normalQuantile(0.5 + confidence/2.0);
+    int s = graph.indexOf(start);
+    int e = graph.indexOf(end);
+    boolean[] coReachable;
+    int[] outEdgeOf;
+    double[] q;
+    double[] sums;
+    long walks = 0;
+    long edgesTouched = 0;
+    int base = graph.edgeCount() + graph.size();
+    PathApproximation.checkSamples(minSamples, maxSamples);
+    if (s == -1 || e == -1) {
+      return PathEstimate.exact(0.0, 0.0);
+    }
+    if (s == e) {
+      return PathEstimate.exact(1.0, 0.0);
+    }
+    coReachable = graph.coReachable(new int[]{e});
+    outEdgeOf = outEdgeOf(graph);
+    q = initialProbabilities(graph, coReachable);
+    for (int i = 0; i < ITERATIONS; ++i) {
+      sums = PathApproximation.sample(
+          batch(graph, s, e, q, outEdgeOf, true), 1,
+          PathApproximation.streams(root.split(), ITERATION_SAMPLES),
+          ITERATION_SAMPLES, z, relativeError, ITERATION_SAMPLES);
+      update(graph, q, sums);
+      walks += (long) sums[base];
+      edgesTouched += (long) sums[base + PathApproximation.COST];
+    }
+    sums = PathApproximation.sample(batch(graph, s, e, q, outEdgeOf, false),
+        1, PathApproximation.streams(root.split(), maxSamples), maxSamples,
+        z, relativeError, minSamples);
+    return PathApproximation.toEstimate(sums, 0)
+        .plusCost(walks, edgesTouched);
+  }
+
+  private static <T> PathApproximation.Batch batch(
+      final CompactGraph<T> graph, final int start, final int end,
+      double[] q, final int[] outEdgeOf, final boolean learn) {
+    final double[] probabilities = q.clone();
+    final AliasTable table = new AliasTable(graph, probabilities);
+    return new PathApproximation.Batch() {
+      @Override
+      public double[] run(int count, SplittableRandom random) {
+        return new Walker<>(graph, start, end, probabilities, table,
+            outEdgeOf, random).run(count, learn);
+      }
+    };
+  }
+
+  /** Uniform probabilities over the edges into co-reachable vertices. */
+  private static <T> double[] initialProbabilities(CompactGraph<T> graph,
+      boolean[] coReachable) {
+    double[] q = new double[graph.edgeCount()];
+    int live;
+    for (int v = 0; v < graph.size(); ++v) {
+      live = 0;
+      for (int i = graph.edgeStart(v); i < graph.edgeEnd(v); ++i) {
+        if (coReachable[graph.target(i)]) {
+          ++live;
+        }
+      }
+      for (int i = graph.edgeStart(v); i < graph.edgeEnd(v); ++i) {
+        q[i] = coReachable[graph.target(i)] ? 1.0/live : 0.0;
+      }
+    }
+    return q;
+  }
+
+  /**
+   * Cross-entropy update: the share of the weighted successful walks
+   * through a vertex that left it along each edge, smoothed with the
+   * previous probabilities. The shares of a vertex sum to one, as do the
+   * previous probabilities, so no renormalisation is needed.
+   */
+  private static <T> void update(CompactGraph<T> graph, double[] q,
+      double[] sums) {
+    int m = graph.edgeCount();
+    double through;
+    for (int v = 0; v < graph.size(); ++v) {
+      through = sums[m + v];
+      if (through == 0.0) {
+        continue;
+      }
+      for (int i = graph.edgeStart(v); i < graph.edgeEnd(v); ++i) {
+        q[i] = SMOOTHING * sums[i]/through + (1.0 - SMOOTHING) * q[i];
+      }
+    }
+  }
+
+  /**
+   * Maps every in-edge index of <code>graph</code> to the index of the same
+   * edge among the out-edges. In-edges are listed by ascending source, see
+   * {@link CompactGraph#buildInEdges()}.
+   */
+  private static <T> int[] outEdgeOf(CompactGraph<T> graph) {
+    int[] outEdgeOf = new int[graph.edgeCount()];
+    int[] fill = new int[graph.size()];
+    int t;
+    for (int u = 0; u < graph.size(); ++u) {
+      for (int i = graph.edgeStart(u); i < graph.edgeEnd(u); ++i) {
+        t = graph.target(i);
+        outEdgeOf[graph.inEdgeStart(t) + fill[t]++] = i;
+      }
+    }
+    return outEdgeOf;
+  }
+
+  /**
+   * Vose alias tables over the out-edges of every vertex, so an edge is
+   * drawn with probability proportional to <code>q</code> in constant
+   * time.
+   */
+  private static final class AliasTable {
+
+    private final double[] accept;
+    private final int[] alias;
+    private final double[] rowTotal;
+
+    <T> AliasTable(CompactGraph<T> graph, double[] q) {
+      int n = graph.size();
+      int maxDegree = 0;
+      int[] small;
+      int[] large;
+      double[] scaled;
+      int smallCount;
+      int largeCount;
+      int from;
+      int degree;
+      int l;
+      int g;
+      accept = new double[q.length];
+      alias = new int[q.length];
+      rowTotal = new double[n];
+      for (int v = 0; v < n; ++v) {
+        maxDegree = Math.max(maxDegree, graph.outDegree(v));
+      }
+      small = new int[maxDegree];
+      large = new int[maxDegree];
+      scaled = new double[maxDegree];
+      for (int v = 0; v < n; ++v) {
+        from = graph.edgeStart(v);
+        degree = graph.outDegree(v);
+        for (int i = 0; i < degree; ++i) {
+          rowTotal[v] += q[from + i];
+        }
+        if (rowTotal[v] == 0.0) {
+          continue;
+        }
+        smallCount = 0;
+        largeCount = 0;
+        for (int i = 0; i < degree; ++i) {
+          scaled[i] = q[from + i] * degree/rowTotal[v];
+          if (scaled[i] < 1.0) {
+            small[smallCount++] = i;
+          } else {
+            large[largeCount++] = i;
+          }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+          l = small[--smallCount];
+          g = large[largeCount - 1];
+          accept[from + l] = scaled[l];
+          alias[from + l] = from + g;
+          scaled[g] = (scaled[g] + scaled[l]) - 1.0;
+          if (scaled[g] < 1.0) {
+            --largeCount;
+            small[smallCount++] = g;
+          }
+        }
+        while (largeCount > 0) {
+          g = large[--largeCount];
+          accept[from + g] = 1.0;
+          alias[from + g] = from + g;
+        }
+        while (smallCount > 0) {
+          // Only reached through rounding; the entry is as good as full.
+          l = small[--smallCount];
+          accept[from + l] = 1.0;
+          alias[from + l] = from + l;
+        }
+      }
+    }
+  }
+
+  /** Runs the walks of a single batch. */
+  private static final class Walker<T> {
+
+    private final CompactGraph<T> graph;
+    private final int start;
+    private final int end;
+    private final double[] q;
+    private final AliasTable table;
+    private final int[] outEdgeOf;
+    private final SplittableRandom random;
+    private final int[] stamps;
+    private final int[] removedStamps;
+    private final double[] removed;
+    private final int[] path;
+    private final int[] edges;
+    private int stamp;
+    private double likelihood;
+    private long touched;
+
+    Walker(CompactGraph<T> graph, int start, int end, double[] q,
+        AliasTable table, int[] outEdgeOf, SplittableRandom random) {
+      int n = graph.size();
+      this.graph = graph;
+      this.start = start;
+      this.end = end;
+      this.q = q;
+      this.table = table;
+      this.outEdgeOf = outEdgeOf;
+      this.random = random;
+      this.stamps = new int[n];
+      this.removedStamps = new int[n];
+      this.removed = new double[n];
+      this.path = new int[n];
+      this.edges = new int[n];
+    }
+
+    /**
+     * Runs <code>count</code> walks. When learning, the result starts with
+     * the weighted number of successful walks along every edge and through
+     * every vertex.
+     */
+    double[] run(int count, boolean learn) {
+      int m = graph.edgeCount();
+      int base = learn ? m + graph.size() : 0;
+      double[] sums = new double[base + PathApproximation.MOMENTS];
+      double weight;
+      int length;
+      for (int i = 0; i < count; ++i) {
+        length = walk();
+        if (length < 0) {
+          PathApproximation.record(sums, base, 0.0, 0.0);
+          continue;
+        }
+        weight = 1.0/likelihood;
+        PathApproximation.record(sums, base, weight, length * weight);
+        if (learn) {
+          for (int k = 0; k < length; ++k) {
+            sums[edges[k]] += weight;
+            sums[m + path[k]] += weight;
+          }
+        }
+      }
+      sums[base + PathApproximation.COST] = touched;
+      return sums;
+    }
+
+    /**
+     * @return the number of edges in the walk if it reached
+     *     <code>end</code>, or -1 if it got stuck.
+     */
+    private int walk() {
+      int curr = start;
+      int length = 0;
+      int edge;
+      double valid;
+
+      likelihood = 1.0;
+      ++stamp;
+      visit(curr);
+      while (curr != end) {
+        valid = table.rowTotal[curr] - removedMass(curr);
+        if (valid <= table.rowTotal[curr] * 1e-12) {
+          return -1;
+        }
+        edge = choose(curr, valid);
+        likelihood = likelihood * q[edge]/valid;
+        path[length] = curr;
+        edges[length++] = edge;
+        curr = graph.target(edge);
+        visit(curr);
+      }
+      return length;
+    }
+
+    /**
+     * Draws an edge of <code>curr</code> to an unvisited vertex with
+     * probability proportional to <code>q</code>, where
+     * <code>valid</code> is the total probability of such edges.
+     */
+    private int choose(int curr, double valid) {
+      int from = graph.edgeStart(curr);
+      int degree = graph.outDegree(curr);
+      int edge = -1;
+      int i;
+      double r;
+      for (int tries = 0; tries < MAX_REJECTIONS; ++tries) {
+        i = from + random.nextInt(degree);
+        edge = random.nextDouble() < table.accept[i] ? i : table.alias[i];
+        ++touched;
+        if (q[edge] > 0.0 && stamps[graph.target(edge)] != stamp) {
+          return edge;
+        }
+      }
+      r = random.nextDouble() * valid;
+      touched += degree;
+      for (i = from; i < from + degree; ++i) {
+        if (q[i] > 0.0 && stamps[graph.target(i)] != stamp) {
+          edge = i;
+          r -= q[i];
+          if (r < 0.0) {
+            break;
+          }
+        }
+      }
+      return edge;
+    }
+
+    private double removedMass(int v) {
+      return removedStamps[v] == stamp ? removed[v] : 0.0;
+    }
+
+    /** Marks v visited and removes its in-edges from their rows' mass. */
+    private void visit(int v) {
+      int u;
+      stamps[v] = stamp;
+      touched += graph.inDegree(v);
+      for (int i = graph.inEdgeStart(v); i < graph.inEdgeEnd(v); ++i) {
+        u = graph.source(i);
+        if (removedStamps[u] != stamp) {
+          removedStamps[u] = stamp;
+          removed[u] = 0.0;
+        }
+        removed[u] += q[outEdgeOf[i]];
+      }
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package com.uniquepaths.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the paths of small components exactly and leaves larger ones to
+ * another engine.
+ *
+ * Graphs of at most <code>maxVertices</code> vertices are counted by
+ * dynamic programming over subsets: the number of simple paths from the
+ * start that visit exactly the vertices of a bitmask and stop at a given
+ * vertex is the sum of those for the bitmask without that vertex and
+ * stopping at one of its predecessors. Bitmasks are expanded one vertex
+ * at a time and only those some path actually visits are stored, so a
+ * single pass from the start counts the paths to every end and, since a
+ * path of <code>k</code> vertices has length <code>k - 1</code>, their
+ * lengths as well. Vertices from which no end can be reached are never
+ * added to a bitmask. If the number of bitmasks of one size exceeds
+ * <code>maxStates</code>, or a count would overflow a long, the graph is
+ * handed to the fallback engine after all.
+ */
+public class ExactEstimator implements PathEstimator {
+
+  public static final int DEFAULT_MAX_VERTICES = 24;
+  public static final int DEFAULT_MAX_STATES = 1 << 13;
+
+  private final PathEstimator fallback;
+  private final int maxVertices;
+  private final int maxStates;
+
+  public ExactEstimator(PathEstimator fallback) {
+    this(fallback, DEFAULT_MAX_VERTICES, DEFAULT_MAX_STATES);
+  }
+
+  public ExactEstimator(PathEstimator fallback, int maxVertices,
+      int maxStates) {
+    if (maxVertices > Integer.SIZE - 1) {
+      throw new IllegalArgumentException("maxVertices must fit a bitmask: "
+          + maxVertices);
+    }
+    this.fallback = fallback;
+    this.maxVertices = maxVertices;
+    this.maxStates = maxStates;
+  }
+
+  public PathEstimator getFallback() {
+    return fallback;
+  }
+
+  @Override
+  public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    PathEstimate[] estimates = null;
+    if (graph.size() <= maxVertices) {
+      estimates = count(graph, start, ends);
+    }
+    return estimates != null ? estimates
+        : fallback.estimate(graph, start, ends);
+  }
+
+  /**
+   * @return the exact estimates, or null if the number of states or of
+   *     paths is too large.
+   */
+  private <T> PathEstimate[] count(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    int n = graph.size();
+    int s = graph.indexOf(start);
+    int[] endOf = new int[n];
+    LengthHistogram[] histograms = new LengthHistogram[ends.size()];
+    PathEstimate[] estimates = new PathEstimate[ends.size()];
+    Map<Integer, long[]> layer = new HashMap<>();
+    Map<Integer, long[]> next;
+    List<Integer> endIds = new ArrayList<>();
+    long touched = 0;
+    long paths;
+    int mask;
+    int u;
+    int e;
+    long[] counts;
+    long[] nextCounts;
+    LengthHistogram histogram;
+    boolean[] coReachable = null;
+    for (int i = 0; i < histograms.length; ++i) {
+      histograms[i] = new LengthHistogram();
+    }
+    if (s != -1) {
+      // endOf[v] is one more than the index of v among the ends, or 0.
+      for (int i = 0; i < ends.size(); ++i) {
+        e = graph.indexOf(ends.get(i));
+        if (e != -1 && endOf[e] == 0) {
+          endOf[e] = i + 1;
+        }
+        endIds.add(e);
+      }
+      coReachable = graph.coReachable(idsOf(endIds));
+      counts = new long[n];
+      counts[s] = 1;
+      layer.put(1 << s, counts);
+    }
+
+    // Layer k holds the bitmasks of k + 1 vertices, that is of the paths
+    // of length k.
+    for (int length = 0; !layer.isEmpty(); ++length) {
+      next = new HashMap<>();
+      for (Map.Entry<Integer, long[]> entry : layer.entrySet()) {
+        mask = entry.getKey();
+        counts = entry.getValue();
+        for (int v = 0; v < n; ++v) {
+          if (counts[v] == 0) {
+            continue;
+          }
+          if (endOf[v] != 0) {
+            histogram = histograms[endOf[v] - 1];
+            if (histogram.count(length) > Long.MAX_VALUE - counts[v]) {
+              return null;
+            }
+            histogram.add(length, counts[v]);
+          }
+          touched += graph.outDegree(v);
+          for (int i = graph.edgeStart(v); i < graph.edgeEnd(v); ++i) {
+            u = graph.target(i);
+            if ((mask & (1 << u)) != 0 || !coReachable[u]) {
+              continue;
+            }
+            nextCounts = next.get(mask | (1 << u));
+            if (nextCounts == null) {
+              if (next.size() == maxStates) {
+                return null;
+              }
+              nextCounts = new long[n];
+              next.put(mask | (1 << u), nextCounts);
+            }
+            paths = nextCounts[u] + counts[v];
+            if (paths < 0) {
+              return null;
+            }
+            nextCounts[u] = paths;
+          }
+        }
+      }
+      layer = next;
+    }
+
+    for (int i = 0; i < estimates.length; ++i) {
+      e = s == -1 ? -1 : endIds.get(i);
+      // Repeated ends share the histogram of their first occurrence.
+      estimates[i] = e == -1 ? PathEstimate.exact(0.0, 0.0)
+          : PathEstimate.exact(histograms[endOf[e] - 1].totalCount()
+              .doubleValue(), histograms[endOf[e] - 1].averageLength())
+              .plusCost(0, touched);
+    }
+    return estimates;
+  }
+
+  private static int[] idsOf(List<Integer> endIds) {
+    int[] ids = new int[endIds.size()];
+    int count = 0;
+    for (int id : endIds) {
+      if (id != -1) {
+        ids[count++] = id;
+      }
+    }
+    return Arrays.copyOf(ids, count);
+  }
+}
@@ -10,6 +10,7 @@ import java.util.Stack;
 public class Graph<T> {
 
   protected Map<T, Node<T>> nodeMap;
+  private CompactGraph<T> compact;
 
   public Graph() {
     nodeMap = new HashMap<>();
@@ -24,9 +25,27 @@ public class Graph<T> {
     Node<T> end = getOrAddNode(e);
     if (!start.hasEdge(end)) {
       start.addEdge(end, 1);
+      compact = null;
     }
   }
 
+  /**
+   * Removes the edge from <code>s</code> to <code>e</code>.
+   *
+   * @return whether the edge was present.
+   */
+  public boolean removeEdge(T s, T e) {
+    boolean removed = false;
+    Node<T> start = nodeMap.get(s);
+    Node<T> end = nodeMap.get(e);
+    if (start != null && end != null && start.hasEdge(end)) {
+      start.removeEdge(end);
+      compact = null;
+      removed = true;
+    }
+    return removed;
+  }
+
   public boolean edgeExists(T s, T e) {
     boolean contains = false;
     Node<T> start = nodeMap.get(s);
@@ -60,20 +79,70 @@ public class Graph<T> {
     } else {
       node = new Node<>(v);
       nodeMap.put(v, node);
+      compact = null;
     }
     return node;
   }
 
+  /**
+   * Returns a {@link CompactGraph} snapshot of this graph. The snapshot,
+   * together with its in-edge index, is built on first use and shared
+   * until the graph is next modified through this class, so in-edge
+   * queries never need a transposed copy of the graph.
+   */
+  public CompactGraph<T> getCompactGraph() {
+    if (compact == null) {
+      compact = CompactGraph.fromGraph(this);
+    }
+    return compact;
+  }
+
   public boolean containsNode(T value) {
     return nodeMap.containsKey(value);
   }
 
-  protected boolean addSuperNode(int sccNum, SCC<T> scc) {
-    SuperNode<T> node = new SuperNode<T>(sccNum, scc);
+  /**
+   * Returns the subgraph induced by the vertices reachable from
+   * <code>start</code> from which <code>end</code> can be reached, the only
+   * vertices any path from <code>start</code> to <code>end</code> visits.
+   * A strongly connected component is kept either whole or not at all.
+   * <code>start</code> and <code>end</code> are kept even if there is no
+   * such path.
+   */
+  public Graph<T> relevantSubgraph(T start, T end) {
+    Graph<T> relevant = new Graph<>();
+    CompactGraph<T> graph = getCompactGraph();
+    int s = graph.indexOf(start);
+    int e = graph.indexOf(end);
+    boolean[] fromStart = s == -1 ? new boolean[graph.size()]
+        : graph.reversed().coReachable(new int[]{s});
+    boolean[] toEnd = e == -1 ? new boolean[graph.size()]
+        : graph.coReachable(new int[]{e});
+    int adj;
+    relevant.getOrAddNode(start);
+    relevant.getOrAddNode(end);
+    for (int v = 0; v < graph.size(); ++v) {
+      if (!fromStart[v] || !toEnd[v]) {
+        continue;
+      }
+      for (int i = graph.edgeStart(v); i < graph.edgeEnd(v); ++i) {
+        adj = graph.target(i);
+        if (fromStart[adj] && toEnd[adj]) {
+          relevant.addEdge(graph.valueOf(v), graph.valueOf(adj));
+        }
+      }
+    }
+    return relevant;
+  }
+
+  protected boolean addSuperNode(int sccNum, SCC<T> scc,
+      Condensation<T> condensation) {
+    SuperNode<T> node = new SuperNode<T>(sccNum, scc, condensation);
     boolean added = false;
     T value = (T) node.getValue();
     if (!nodeMap.containsKey(value)) {
       nodeMap.put(value, node);
+      compact = null;
       added = true;
     }
     return added;
@@ -0,0 +1,54 @@
+package com.uniquepaths.util;
+
+import java.util.List;
+
+/**
+ * Scores several ends with one set of naive walks, see
+ * {@link PathApproximation#estimateAll}. A single end is left to the
+ * Kroese-Roberts sampler, which is more precise per walk.
+ */
+public class MultiTargetEstimator extends SamplingEstimator {
+
+  private final boolean dynamicPruning;
+
+  public MultiTargetEstimator() {
+    this(false);
+  }
+
+  /** Uses the default precision and walk counts. */
+  public MultiTargetEstimator(boolean dynamicPruning) {
+    this(PathApproximation.DEFAULT_RELATIVE_ERROR,
+        PathApproximation.DEFAULT_CONFIDENCE, PathApproximation.MIN_SAMPLES,
+        PathApproximation.MAX_SAMPLES, dynamicPruning);
+  }
+
+  public MultiTargetEstimator(double relativeError, double confidence,
+      int minSamples, int maxSamples) {
+    this(relativeError, confidence, minSamples, maxSamples, false);
+  }
+
+  /**
+   * @param dynamicPruning whether walks re-check before every step which
+   *     vertices can still reach an end, see
+   *     {@link PathApproximation#estimateEach(CompactGraph, Object, List,
+   *     long, double, double, int, int, boolean)}.
+   */
+  public MultiTargetEstimator(double relativeError, double confidence,
+      int minSamples, int maxSamples, boolean dynamicPruning) {
+    super(relativeError, confidence, minSamples, maxSamples);
+    this.dynamicPruning = dynamicPruning;
+  }
+
+  @Override
+  public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    long seed = nextSeed();
+    if (ends.size() > 1) {
+      return PathApproximation.estimateAll(graph, start, ends, seed,
+          relativeError, confidence, minSamples, maxSamples,
+          dynamicPruning);
+    }
+    return PathApproximation.estimateEach(graph, start, ends, seed,
+        relativeError, confidence, minSamples, maxSamples, dynamicPruning);
+  }
+}
@@ -11,20 +11,22 @@ public class Node<T> {
   private boolean visited;
   private int sccId;
   private HashMap<Node<T>, Integer> edges;
-  private HashMap<Integer, Integer> distances;
 
   public Node(T v) {
     this.value = v;
     this.onStack = false;
     this.visited = false;
     this.edges = new HashMap<>();
-    this.distances = new HashMap<>();
   }
 
   public void addEdge(Node<T> node, int weight) {
     edges.put(node, weight);
   }
 
+  public void removeEdge(Node<T> node) {
+    edges.remove(node);
+  }
+
   public boolean hasEdge(Node<T> node) {
     return edges.containsKey(node);
   }
@@ -61,38 +63,6 @@ public class Node<T> {
     this.visited = visited;
   }
 
-  /**
-   * Adds a length to the value to the map of nodes determined by the
-   * distance to a destination
-   *
-   */
-  public void addDistance(int length) {
-    if (distances.containsKey(length)) {
-      distances.put(length, distances.get(length) + 1);
-    } else {
-      distances.put(length, 1);
-    }
-  }
-
-  /**
-   * Increments the values associated with the key (length)
-   * for the mapping of path-length to occurrences.
-   *
-   */
-  public void addDistance(int length, int times) {
-    distances.put(length, times);
-  }
-
-  /** Retrives the path-length to occurrence mappings. */
-  public Map<Integer, Integer> getDistances() {
-    return distances;
-  }
-
-  /** Gets the count for a partcular distance */
-  public Integer getDistanceCount(int count) {
-    return distances.get(count);
-  }
-
   public String toString() {
     StringBuilder strBldr = new StringBuilder();
     strBldr.append('<');
@@ -0,0 +1,472 @@
+package com.uniquepaths.util;
+
+import java.util.Arrays;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fork-join decomposition of a {@link CompactGraph} into strongly
+ * connected components.
+ *
+ * Vertices with no remaining in- or out-edges are first trimmed off as
+ * singleton components. The rest is split with the forward-backward
+ * algorithm: the vertices both reachable from and reaching a pivot form its
+ * component, and the forward-only, backward-only and unreached vertices are
+ * three independent partitions that are decomposed in parallel. Partitions
+ * below {@link #SEQUENTIAL_THRESHOLD} are finished with Tarjan's algorithm,
+ * as are partitions in which a forward-backward step only found a small
+ * component, since those are dominated by many small components for which
+ * forward-backward degrades to quadratic time.
+ */
+public class ParallelStronglyConnectedComponents {
+
+  public static final int SEQUENTIAL_THRESHOLD = 1 << 12;
+  private static final int MIN_PROGRESS_RATIO = 16;
+  private static final int DONE = -1;
+
+  /** Decomposes <code>graph</code> on the common fork-join pool. */
+  public static <T> int[] getComponentIds(CompactGraph<T> graph) {
+    return getComponentIds(graph, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Labels every vertex of <code>graph</code> with the id of its strongly
+   * connected component. The labelling is deterministic and, like
+   * {@link StronglyConnectedComponents#getComponentIds}, numbers the
+   * components in a reverse topological order of the condensed graph.
+   *
+   * @param graph the graph to decompose.
+   * @param pool the pool to run the decomposition on.
+   *
+   * @return an array mapping each vertex id to its component id.
+   *
+   */
+  public static <T> int[] getComponentIds(CompactGraph<T> graph,
+      ForkJoinPool pool) {
+    State<T> state = new State<>(graph);
+    int[] remaining;
+    graph.buildInEdges();
+    remaining = state.trim();
+    if (remaining.length > 0) {
+      pool.invoke(new Partition<>(null, state, remaining, 0, true));
+    }
+    return canonicalOrder(graph, state.component,
+        state.nextLabel.get());
+  }
+
+  /**
+   * Shared per-vertex arrays. Each vertex is only written by the task that
+   * owns its partition, so no further synchronisation is needed.
+   */
+  private static final class State<T> {
+
+    final CompactGraph<T> graph;
+    final int[] color;
+    final int[] component;
+    final int[] index;
+    final int[] lowLink;
+    final int[] cursor;
+    final AtomicInteger nextColor = new AtomicInteger(1);
+    final AtomicInteger nextLabel = new AtomicInteger();
+
+    State(CompactGraph<T> graph) {
+      int n = graph.size();
+      this.graph = graph;
+      this.color = new int[n];
+      this.component = new int[n];
+      this.index = new int[n];
+      this.lowLink = new int[n];
+      this.cursor = new int[n];
+    }
+
+    /**
+     * Repeatedly removes vertices without in- or out-edges to the rest of
+     * the graph, labelling each as its own component.
+     *
+     * @return the vertices left after trimming.
+     */
+    int[] trim() {
+      int n = graph.size();
+      int[] inDegree = new int[n];
+      int[] outDegree = new int[n];
+      int[] queue = new int[n];
+      int head = 0;
+      int tail = 0;
+      int v;
+      int w;
+
+      for (v = 0; v < n; ++v) {
+        for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); ++e) {
+          w = graph.target(e);
+          if (w != v) {
+            ++outDegree[v];
+            ++inDegree[w];
+          }
+        }
+      }
+      for (v = 0; v < n; ++v) {
+        if (inDegree[v] == 0 || outDegree[v] == 0) {
+          color[v] = DONE;
+          queue[tail++] = v;
+        }
+      }
+      while (head < tail) {
+        v = queue[head++];
+        component[v] = nextLabel.getAndIncrement();
+        for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); ++e) {
+          w = graph.target(e);
+          if (color[w] != DONE && --inDegree[w] == 0) {
+            color[w] = DONE;
+            queue[tail++] = w;
+          }
+        }
+        for (int e = graph.inEdgeStart(v); e < graph.inEdgeEnd(v); ++e) {
+          w = graph.source(e);
+          if (color[w] != DONE && --outDegree[w] == 0) {
+            color[w] = DONE;
+            queue[tail++] = w;
+          }
+        }
+      }
+
+      int[] remaining = new int[n - tail];
+      int count = 0;
+      for (v = 0; v < n; ++v) {
+        if (color[v] != DONE) {
+          remaining[count++] = v;
+        }
+      }
+      return remaining;
+    }
+
+    /**
+     * Tarjan's algorithm restricted to the vertices coloured
+     * <code>c</code>. Vertices on the Tarjan stack are recoloured with a
+     * fresh colour so membership can be tested without a global bitset.
+     */
+    void tarjan(int[] verts, int c) {
+      int stacked = nextColor.getAndIncrement();
+      int[] stack = new int[verts.length];
+      int[] callStack = new int[verts.length];
+      int stackSize = 0;
+      int depth;
+      int dfsIndex = 0;
+      int label;
+      int v;
+      int w;
+
+      for (int root : verts) {
+        if (color[root] != c) {
+          continue;
+        }
+        depth = 0;
+        callStack[depth++] = root;
+        color[root] = stacked;
+        index[root] = dfsIndex;
+        lowLink[root] = dfsIndex;
+        ++dfsIndex;
+        cursor[root] = graph.edgeStart(root);
+        stack[stackSize++] = root;
+
+        while (depth > 0) {
+          v = callStack[depth - 1];
+          if (cursor[v] < graph.edgeEnd(v)) {
+            w = graph.target(cursor[v]++);
+            if (color[w] == c) {
+              callStack[depth++] = w;
+              color[w] = stacked;
+              index[w] = dfsIndex;
+              lowLink[w] = dfsIndex;
+              ++dfsIndex;
+              cursor[w] = graph.edgeStart(w);
+              stack[stackSize++] = w;
+            } else if (color[w] == stacked) {
+              lowLink[v] = Math.min(lowLink[v], index[w]);
+            }
+            continue;
+          }
+
+          --depth;
+          if (lowLink[v] == index[v]) {
+            label = nextLabel.getAndIncrement();
+            do {
+              w = stack[--stackSize];
+              color[w] = DONE;
+              component[w] = label;
+            } while (w != v);
+          }
+          if (depth > 0) {
+            w = callStack[depth - 1];
+            lowLink[w] = Math.min(lowLink[w], lowLink[v]);
+          }
+        }
+      }
+    }
+  }
+
+  private static final class Partition<T> extends CountedCompleter<Void> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final State<T> state;
+    private final int color;
+    private final boolean forwardBackward;
+    private int[] verts;
+
+    Partition(CountedCompleter<?> parent, State<T> state, int[] verts,
+        int color, boolean forwardBackward) {
+      super(parent);
+      this.state = state;
+      this.verts = verts;
+      this.color = color;
+      this.forwardBackward = forwardBackward;
+    }
+
+    @Override
+    public void compute() {
+      if (verts.length <= SEQUENTIAL_THRESHOLD || !forwardBackward) {
+        state.tarjan(verts, color);
+        verts = null;
+        tryComplete();
+        return;
+      }
+
+      CompactGraph<T> graph = state.graph;
+      int[] colors = state.color;
+      int[] queue = new int[verts.length];
+      int forward = state.nextColor.getAndIncrement();
+      int backward = state.nextColor.getAndIncrement();
+      int label = state.nextLabel.getAndIncrement();
+      int pivot = verts[0];
+      long degree;
+      long best = -1;
+      int head = 0;
+      int tail = 0;
+      int found;
+      int v;
+      int w;
+
+      // A vertex with many in- and out-edges is likely to sit in a large
+      // component, which keeps the three remaining partitions small.
+      for (int u : verts) {
+        degree = (long) graph.inDegree(u) * graph.outDegree(u);
+        if (degree > best) {
+          best = degree;
+          pivot = u;
+        }
+      }
+
+      // Forward reachability from the pivot within this partition.
+      colors[pivot] = forward;
+      queue[tail++] = pivot;
+      while (head < tail) {
+        v = queue[head++];
+        for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); ++e) {
+          w = graph.target(e);
+          if (colors[w] == color) {
+            colors[w] = forward;
+            queue[tail++] = w;
+          }
+        }
+      }
+
+      // Backward reachability; vertices also reached forwards form the
+      // pivot's component.
+      head = 0;
+      tail = 0;
+      colors[pivot] = DONE;
+      state.component[pivot] = label;
+      queue[tail++] = pivot;
+      while (head < tail) {
+        v = queue[head++];
+        for (int e = graph.inEdgeStart(v); e < graph.inEdgeEnd(v); ++e) {
+          w = graph.source(e);
+          if (colors[w] == forward) {
+            colors[w] = DONE;
+            state.component[w] = label;
+            queue[tail++] = w;
+          } else if (colors[w] == color) {
+            colors[w] = backward;
+            queue[tail++] = w;
+          }
+        }
+      }
+
+      int[] counts = new int[3];
+      for (int u : verts) {
+        if (colors[u] == forward) {
+          ++counts[0];
+        } else if (colors[u] == backward) {
+          ++counts[1];
+        } else if (colors[u] == color) {
+          ++counts[2];
+        }
+      }
+      found = verts.length - counts[0] - counts[1] - counts[2];
+      int[][] parts = new int[][]{new int[counts[0]], new int[counts[1]],
+          new int[counts[2]]};
+      Arrays.fill(counts, 0);
+      for (int u : verts) {
+        if (colors[u] == forward) {
+          parts[0][counts[0]++] = u;
+        } else if (colors[u] == backward) {
+          parts[1][counts[1]++] = u;
+        } else if (colors[u] == color) {
+          parts[2][counts[2]++] = u;
+        }
+      }
+
+      int[] partColors = new int[]{forward, backward, color};
+      boolean progress = (long) found * MIN_PROGRESS_RATIO >= verts.length;
+      // Ancestors stay reachable until every descendant completes, so
+      // release the partition before forking.
+      verts = null;
+      for (int i = 0; i < parts.length; ++i) {
+        if (parts[i].length > 0) {
+          splitWeakly(parts[i], partColors[i], progress);
+        }
+      }
+      tryComplete();
+    }
+
+    /**
+     * Forks a task for every weakly connected piece of <code>set</code>.
+     * Pieces below the sequential threshold are recoloured and batched
+     * together, since no edge joins them, so that the many small leftovers
+     * of a forward-backward step do not each become a task. Large pieces
+     * continue with forward-backward only if <code>progress</code> is set.
+     */
+    private void splitWeakly(int[] set, int c, boolean progress) {
+      if (set.length <= SEQUENTIAL_THRESHOLD) {
+        fork(set, c, false);
+        return;
+      }
+      CompactGraph<T> graph = state.graph;
+      int[] colors = state.color;
+      int[] queue = new int[set.length];
+      int[] batch = new int[SEQUENTIAL_THRESHOLD];
+      int batchColor = state.nextColor.getAndIncrement();
+      int batchSize = 0;
+      int head = 0;
+      int tail = 0;
+      int start;
+      int piece;
+      int v;
+      int w;
+
+      for (int root : set) {
+        if (colors[root] != c) {
+          continue;
+        }
+        piece = state.nextColor.getAndIncrement();
+        start = tail;
+        colors[root] = piece;
+        queue[tail++] = root;
+        while (head < tail) {
+          v = queue[head++];
+          for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); ++e) {
+            w = graph.target(e);
+            if (colors[w] == c) {
+              colors[w] = piece;
+              queue[tail++] = w;
+            }
+          }
+          for (int e = graph.inEdgeStart(v); e < graph.inEdgeEnd(v); ++e) {
+            w = graph.source(e);
+            if (colors[w] == c) {
+              colors[w] = piece;
+              queue[tail++] = w;
+            }
+          }
+        }
+
+        if (tail - start > SEQUENTIAL_THRESHOLD) {
+          fork(Arrays.copyOfRange(queue, start, tail), piece, progress);
+          continue;
+        }
+        if (batchSize + tail - start > SEQUENTIAL_THRESHOLD) {
+          fork(Arrays.copyOf(batch, batchSize), batchColor, false);
+          batchColor = state.nextColor.getAndIncrement();
+          batchSize = 0;
+        }
+        for (int i = start; i < tail; ++i) {
+          colors[queue[i]] = batchColor;
+          batch[batchSize++] = queue[i];
+        }
+      }
+      if (batchSize > 0) {
+        fork(Arrays.copyOf(batch, batchSize), batchColor, false);
+      }
+    }
+
+    private void fork(int[] set, int c, boolean split) {
+      addToPendingCount(1);
+      new Partition<>(this, state, set, c, split).fork();
+    }
+  }
+
+  /**
+   * Relabels the components so that ids follow a reverse topological order
+   * of the condensed graph, with ties broken by the smallest vertex id of
+   * each component. This makes the result independent of scheduling.
+   */
+  private static <T> int[] canonicalOrder(CompactGraph<T> graph,
+      int[] component, int count) {
+    int n = graph.size();
+    int[] byFirstVertex = new int[count];
+    int[] offsets = new int[count + 1];
+    int[] members = new int[n];
+    int[] inDegree = new int[count];
+    int[] queue = new int[count];
+    int[] result = new int[n];
+    int next = 0;
+    int head = 0;
+    int tail = 0;
+    int c;
+    int d;
+
+    Arrays.fill(byFirstVertex, -1);
+    for (int v = 0; v < n; ++v) {
+      if (byFirstVertex[component[v]] == -1) {
+        byFirstVertex[component[v]] = next++;
+      }
+      component[v] = byFirstVertex[component[v]];
+      ++offsets[component[v] + 1];
+    }
+    for (c = 0; c < count; ++c) {
+      offsets[c + 1] += offsets[c];
+    }
+    int[] fill = Arrays.copyOf(offsets, count);
+    for (int v = 0; v < n; ++v) {
+      members[fill[component[v]]++] = v;
+      for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); ++e) {
+        if (component[graph.target(e)] != component[v]) {
+          ++inDegree[component[graph.target(e)]];
+        }
+      }
+    }
+
+    // Kahn's algorithm over the condensed graph; the i-th component taken
+    // off the queue receives id count - 1 - i.
+    for (c = 0; c < count; ++c) {
+      if (inDegree[c] == 0) {
+        queue[tail++] = c;
+      }
+    }
+    while (head < tail) {
+      c = queue[head++];
+      for (int i = offsets[c]; i < offsets[c + 1]; ++i) {
+        result[members[i]] = count - head;
+        for (int e = graph.edgeStart(members[i]);
+            e < graph.edgeEnd(members[i]); ++e) {
+          d = component[graph.target(e)];
+          if (d != c && --inDegree[d] == 0) {
+            queue[tail++] = d;
+          }
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,20 @@
+package com.uniquepaths.util;
+
+import java.util.List;
+
+/**
+ * An engine estimating the number and average length of the simple paths
+ * from one vertex of a graph, usually an in-node of an SCC, to several
+ * others. Engines are looked up by name in {@link PathEstimators}.
+ *
+ * Implementations must be safe to use from several threads at once.
+ */
+public interface PathEstimator {
+
+  /**
+   * @return one estimate per vertex of <code>ends</code>, in the same
+   *     order. Ends that are not vertices of <code>graph</code> have no
+   *     paths, and <code>start</code> itself has the single empty path.
+   */
+  <T> PathEstimate[] estimate(CompactGraph<T> graph, T start, List<T> ends);
+}
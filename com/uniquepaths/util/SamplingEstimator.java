@@ -0,0 +1,55 @@
+package com.uniquepaths.util;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Base of the engines that sample random walks or runs, with the precision
+ * they aim for and the bounds on their number shared by all of them, see
+ * {@link PathApproximation#estimate(CompactGraph, Object, Object, long,
+ * double, double, int, int)}.
+ *
+ * Every estimate is seeded from a generator of its own, so estimates may
+ * run from several threads at once.
+ */
+public abstract class SamplingEstimator implements PathEstimator {
+
+  protected final double relativeError;
+  protected final double confidence;
+  protected final int minSamples;
+  protected final int maxSamples;
+  private final Random generator = new Random();
+
+  /**
+   * @throws IllegalArgumentException if <code>minSamples</code> is not
+   *     positive or exceeds <code>maxSamples</code>.
+   */
+  protected SamplingEstimator(double relativeError, double confidence,
+      int minSamples, int maxSamples) {
+    PathApproximation.checkSamples(minSamples, maxSamples);
+    this.relativeError = relativeError;
+    this.confidence = confidence;
+    this.minSamples = minSamples;
+    this.maxSamples = maxSamples;
+  }
+
+  /** The seed of the next estimate. */
+  protected long nextSeed() {
+    synchronized (generator) {
+      return generator.nextLong();
+    }
+  }
+
+  /**
+   * Runs <code>batch</code>, whose result closes with a single block of
+   * running moments, until it is precise enough or has made
+   * <code>maxSamples</code> runs.
+   */
+  double[] sample(PathApproximation.Batch batch) {
+    return PathApproximation.sample(batch, 1,
+        PathApproximation.streams(new SplittableRandom(nextSeed()),
+            maxSamples), maxSamples,
+        PathApproximation.normalQuantile(0.5 + confidence/2.0),
+        relativeError, minSamples);
+  }
+}
@@ -0,0 +1,214 @@
+package com.uniquepaths.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Stochastic enumeration (Vaisman and Kroese) over the tree of simple
+ * paths from the start vertex in which the end is a leaf.
+ *
+ * A run descends the tree level by level keeping at most
+ * <code>budget</code> partial paths. All children of the kept paths are
+ * listed; those ending at the end vertex are counted, and a uniform sample
+ * of at most <code>budget</code> of the others is kept for the next level.
+ * The running product of the average number of children per kept path
+ * turns the counts of every level into an unbiased estimate of the number
+ * of paths. A budget of one is Knuth's estimator; larger budgets trade
+ * more work per run for a lower variance. Children are restricted to
+ * vertices that can still reach the end.
+ *
+ * The number of runs is chosen adaptively as in {@link PathApproximation};
+ * the reported samples and walks count runs, not partial paths.
+ */
+public class StochasticEnumerationEstimator extends SamplingEstimator {
+
+  public static final int DEFAULT_BUDGET = 10;
+
+  private final int budget;
+
+  public StochasticEnumerationEstimator() {
+    this(DEFAULT_BUDGET);
+  }
+
+  /**
+   * Uses the default precision, with the walk counts of
+   * {@link PathApproximation} divided by the budget as the limits on runs.
+   */
+  public StochasticEnumerationEstimator(int budget) {
+    this(budget, PathApproximation.DEFAULT_RELATIVE_ERROR,
+        PathApproximation.DEFAULT_CONFIDENCE,
+        Math.max(2, PathApproximation.MIN_SAMPLES/budget),
+        Math.max(2, PathApproximation.MAX_SAMPLES/budget));
+  }
+
+  public StochasticEnumerationEstimator(int budget, double relativeError,
+      double confidence, int minSamples, int maxSamples) {
+    super(relativeError, confidence, minSamples, maxSamples);
+    if (budget < 1) {
+      throw new IllegalArgumentException("budget must be positive: "
+          + budget);
+    }
+    this.budget = budget;
+  }
+
+  public int getBudget() {
+    return budget;
+  }
+
+  @Override
+  public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    PathEstimate[] estimates = new PathEstimate[ends.size()];
+    int s = graph.indexOf(start);
+    int e;
+    for (int i = 0; i < estimates.length; ++i) {
+      e = graph.indexOf(ends.get(i));
+      if (s == -1 || e == -1) {
+        estimates[i] = PathEstimate.exact(0.0, 0.0);
+        continue;
+      }
+      if (s == e) {
+        estimates[i] = PathEstimate.exact(1.0, 0.0);
+        continue;
+      }
+      estimates[i] = PathApproximation.toEstimate(
+          sample(batch(graph, s, e, graph.coReachable(new int[]{e}))), 0);
+    }
+    return estimates;
+  }
+
+  private <T> PathApproximation.Batch batch(final CompactGraph<T> graph,
+      final int start, final int end, final boolean[] coReachable) {
+    return new PathApproximation.Batch() {
+      @Override
+      public double[] run(int count, SplittableRandom random) {
+        return new Run<>(graph, start, end, coReachable, budget, random)
+            .run(count);
+      }
+    };
+  }
+
+  /** The partial paths and candidate children of one batch of runs. */
+  private static final class Run<T> {
+
+    private final CompactGraph<T> graph;
+    private final int start;
+    private final int end;
+    private final boolean[] coReachable;
+    private final int budget;
+    private final SplittableRandom random;
+    private int[] vertices;
+    private BitSet[] visited;
+    private int[] nextVertices;
+    private BitSet[] nextVisited;
+    private int[] parents = new int[16];
+    private int[] children = new int[16];
+    private long touched;
+
+    Run(CompactGraph<T> graph, int start, int end, boolean[] coReachable,
+        int budget, SplittableRandom random) {
+      this.graph = graph;
+      this.start = start;
+      this.end = end;
+      this.coReachable = coReachable;
+      this.budget = budget;
+      this.random = random;
+      this.vertices = new int[budget];
+      this.visited = new BitSet[budget];
+      this.nextVertices = new int[budget];
+      this.nextVisited = new BitSet[budget];
+    }
+
+    double[] run(int count) {
+      double[] sums = new double[PathApproximation.MOMENTS];
+      double[] result = new double[2];
+      for (int i = 0; i < count; ++i) {
+        enumerate(result);
+        PathApproximation.record(sums, 0, result[0], result[1]);
+      }
+      sums[PathApproximation.COST] = touched;
+      return sums;
+    }
+
+    /**
+     * One run; stores the estimated number of paths and the estimated sum
+     * of their lengths in <code>result</code>.
+     */
+    private void enumerate(double[] result) {
+      double factor = 1.0;
+      double leaves;
+      int size = 1;
+      int candidates;
+      int atEnd;
+      int level = 0;
+      int pick;
+      int swap;
+      int[] tmpVertices;
+      BitSet[] tmpVisited;
+      result[0] = 0.0;
+      result[1] = 0.0;
+      vertices[0] = start;
+      visited[0] = new BitSet(graph.size());
+      visited[0].set(start);
+      while (size > 0) {
+        candidates = 0;
+        atEnd = 0;
+        for (int x = 0; x < size; ++x) {
+          int v = vertices[x];
+          touched += graph.outDegree(v);
+          for (int i = graph.edgeStart(v); i < graph.edgeEnd(v); ++i) {
+            int u = graph.target(i);
+            if (!coReachable[u] || visited[x].get(u)) {
+              continue;
+            }
+            if (u == end) {
+              ++atEnd;
+            } else {
+              if (candidates == parents.length) {
+                parents = Arrays.copyOf(parents, 2 * candidates);
+                children = Arrays.copyOf(children, 2 * candidates);
+              }
+              parents[candidates] = x;
+              children[candidates++] = u;
+            }
+          }
+        }
+        ++level;
+        if (atEnd > 0) {
+          leaves = factor * atEnd/size;
+          result[0] += leaves;
+          result[1] += level * leaves;
+        }
+        if (candidates == 0) {
+          return;
+        }
+        factor = factor * candidates/size;
+
+        // Keep a uniform sample of at most budget candidates, moving them
+        // to the front by a partial Fisher-Yates shuffle.
+        int kept = Math.min(budget, candidates);
+        for (int j = 0; j < kept; ++j) {
+          pick = j + random.nextInt(candidates - j);
+          swap = parents[j];
+          parents[j] = parents[pick];
+          parents[pick] = swap;
+          swap = children[j];
+          children[j] = children[pick];
+          children[pick] = swap;
+          nextVertices[j] = children[j];
+          nextVisited[j] = (BitSet) visited[parents[j]].clone();
+          nextVisited[j].set(children[j]);
+        }
+        tmpVertices = vertices;
+        vertices = nextVertices;
+        nextVertices = tmpVertices;
+        tmpVisited = visited;
+        visited = nextVisited;
+        nextVisited = tmpVisited;
+        size = kept;
+      }
+    }
+  }
+}
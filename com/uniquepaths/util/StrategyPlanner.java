@@ -0,0 +1,450 @@
+package com.uniquepaths.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Chooses how the paths of each component are counted, from its size, its
+ * boundary and its cycle structure, and learns from the time each choice
+ * took.
+ *
+ * For a component of <code>n</code> vertices and <code>m</code> edges
+ * with <code>in</code> in-nodes and <code>out</code> out-nodes, the work
+ * of every strategy that applies is predicted in abstract units:
+ * <ul>
+ * <li><code>closed-form</code>: <code>in (n + m)</code>, for the shapes of
+ * {@link SccShape}.</li>
+ * <li><code>subset-dp</code>: <code>in</code> times a bound on the
+ * subsets {@link ExactEstimator} stores times <code>n + m/n</code>, for at
+ * most {@link ExactEstimator#DEFAULT_MAX_VERTICES} vertices. The bound is
+ * the least of <code>2^(n-1)</code>, <code>n</code> times its limit of
+ * subsets per layer and <code>n</code> times the product of the
+ * out-degrees.</li>
+ * <li><code>feedback-vertex-set</code>: for a feedback vertex set of
+ * <code>f</code> vertices, <code>in out n (1 + m/n)</code> times the
+ * number of ordered subsets of it, for <code>f</code> up to
+ * {@link FeedbackVertexSetEstimator#DEFAULT_MAX_FEEDBACK}. The search
+ * for the set gives up on components with many times more back edges,
+ * which are left to the other strategies.</li>
+ * <li><code>enumeration</code>: <code>in out</code> times the product of
+ * the out-degrees, which bounds the number of paths the search walks.</li>
+ * <li><code>sampling</code>: <code>in</code> times
+ * {@link PathApproximation#MAX_SAMPLES} walks of <code>(n + m)/2</code>
+ * edges.</li>
+ * </ul>
+ * The exact strategies other than the closed form, and sampling, add
+ * <code>in (n + m)</code> for the work of preparing each start. The cycle
+ * rank <code>m - n + 1</code> is reported along with them.
+ * Units are turned into nanoseconds by a factor per strategy. The
+ * cheapest exact strategy is chosen unless sampling is predicted to be
+ * <code>EXACT_PREFERENCE</code> times cheaper still.
+ *
+ * Every run is timed and the factor of its strategy is recalibrated as the
+ * geometric mean of the measured nanoseconds per unit, the initial factor
+ * counting as one measurement. {@link #getCalibration()} gives the factors
+ * in the form read by {@link #setCalibration(String)}, so that a run can
+ * start from the timings of earlier ones, and {@link #explain()} reports
+ * the plan of every component with its predicted and actual time.
+ */
+public class StrategyPlanner {
+
+  public static final String CONFIG_KEY = "uniquepaths.planner.costs";
+  public static final String DEFAULT_SAMPLER = PathEstimators.MULTI_TARGET;
+  static final double EXACT_PREFERENCE = 4.0;
+
+  public enum Strategy {
+    CLOSED_FORM("closed-form", 400.0),
+    ENUMERATION("enumeration", 30.0),
+    SUBSET_DP("subset-dp", 4.0),
+    FEEDBACK_VERTEX_SET("feedback-vertex-set", 90.0),
+    SAMPLING("sampling", 5.0);
+
+    private final String name;
+    private final double defaultNanosPerUnit;
+
+    Strategy(String name, double defaultNanosPerUnit) {
+      this.name = name;
+      this.defaultNanosPerUnit = defaultNanosPerUnit;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isExact() {
+      return this != SAMPLING;
+    }
+
+    static Strategy forName(String name) {
+      for (Strategy strategy : values()) {
+        if (strategy.name.equals(name)) {
+          return strategy;
+        }
+      }
+      throw new IllegalArgumentException("Unknown strategy " + name);
+    }
+  }
+
+  /** The features of one component and the strategy chosen for it. */
+  public static class Plan {
+
+    public final int sccId;
+    public final int vertices;
+    public final int edges;
+    public final int inNodes;
+    public final int outNodes;
+    public final int cycleRank;
+    public final int feedback;
+    public final SccShape shape;
+    public final Strategy strategy;
+    private final double[] predictedNanos;
+    private long actualNanos = -1;
+
+    Plan(int sccId, int vertices, int edges, int inNodes, int outNodes,
+        int feedback, SccShape shape, Strategy strategy,
+        double[] predictedNanos) {
+      this.sccId = sccId;
+      this.vertices = vertices;
+      this.edges = edges;
+      this.inNodes = inNodes;
+      this.outNodes = outNodes;
+      this.cycleRank = vertices == 0 ? 0 : edges - vertices + 1;
+      this.feedback = feedback;
+      this.shape = shape;
+      this.strategy = strategy;
+      this.predictedNanos = predictedNanos;
+    }
+
+    /**
+     * The predicted time of <code>strategy</code> in nanoseconds, NaN if it
+     * does not apply to the component.
+     */
+    public double getPredictedNanos(Strategy strategy) {
+      return predictedNanos[strategy.ordinal()];
+    }
+
+    /** The measured time of the chosen strategy, -1 before it ran. */
+    public long getActualNanos() {
+      return actualNanos;
+    }
+
+    public String toString() {
+      StringBuilder strBldr = new StringBuilder();
+      strBldr.append("scc ");
+      strBldr.append(sccId);
+      strBldr.append(": ");
+      strBldr.append(vertices);
+      strBldr.append(" vertices, ");
+      strBldr.append(edges);
+      strBldr.append(" edges, ");
+      strBldr.append(inNodes);
+      strBldr.append(" in, ");
+      strBldr.append(outNodes);
+      strBldr.append(" out, cycle rank ");
+      strBldr.append(cycleRank);
+      if (feedback != -1) {
+        strBldr.append(", feedback ");
+        strBldr.append(feedback);
+      }
+      if (shape != SccShape.GENERAL) {
+        strBldr.append(", ");
+        strBldr.append(shape.name().toLowerCase(Locale.ROOT));
+      }
+      strBldr.append(" -> ");
+      strBldr.append(strategy.getName());
+      strBldr.append(", predicted ");
+      strBldr.append(millis(getPredictedNanos(strategy)));
+      strBldr.append(" ms, actual ");
+      strBldr.append(actualNanos == -1 ? "-" : millis(actualNanos));
+      strBldr.append(" ms (");
+      for (Strategy other : Strategy.values()) {
+        if (other != strategy && !Double.isNaN(getPredictedNanos(other))) {
+          strBldr.append(other.getName());
+          strBldr.append(' ');
+          strBldr.append(millis(getPredictedNanos(other)));
+          strBldr.append(" ms, ");
+        }
+      }
+      if (strBldr.charAt(strBldr.length() - 1) == '(') {
+        strBldr.append("no alternative");
+      } else {
+        strBldr.setLength(strBldr.length() - 2);
+      }
+      strBldr.append(")");
+      return strBldr.toString();
+    }
+
+    private static String millis(double nanos) {
+      return String.format(Locale.ROOT, "%.3g", nanos / 1e6);
+    }
+  }
+
+  private final PathEstimator[] engines;
+  private final double[] logFactorSums;
+  private final int[] runs;
+  private final List<Plan> plans = new ArrayList<>();
+
+  /** A planner sampling with the default engine. */
+  public StrategyPlanner() {
+    this(PathEstimators.forName(DEFAULT_SAMPLER));
+  }
+
+  /**
+   * @param sampler the engine of the <code>sampling</code> strategy, to
+   *     which the exact strategies also hand what they cannot count.
+   */
+  public StrategyPlanner(PathEstimator sampler) {
+    int count = Strategy.values().length;
+    engines = new PathEstimator[count];
+    engines[Strategy.CLOSED_FORM.ordinal()] =
+        new ClosedFormEstimator(null, sampler);
+    engines[Strategy.ENUMERATION.ordinal()] = new EnumerationEstimator();
+    engines[Strategy.SUBSET_DP.ordinal()] = new ExactEstimator(sampler);
+    engines[Strategy.FEEDBACK_VERTEX_SET.ordinal()] =
+        new FeedbackVertexSetEstimator(sampler);
+    engines[Strategy.SAMPLING.ordinal()] = sampler;
+    logFactorSums = new double[count];
+    runs = new int[count];
+    for (Strategy strategy : Strategy.values()) {
+      logFactorSums[strategy.ordinal()] =
+          Math.log(strategy.defaultNanosPerUnit);
+      runs[strategy.ordinal()] = 1;
+    }
+  }
+
+  public PathEstimator getEngine(Strategy strategy) {
+    return engines[strategy.ordinal()];
+  }
+
+  /** The current nanoseconds per unit of work of <code>strategy</code>. */
+  public synchronized double getNanosPerUnit(Strategy strategy) {
+    return Math.exp(logFactorSums[strategy.ordinal()]
+        / runs[strategy.ordinal()]);
+  }
+
+  /**
+   * The nanoseconds per unit of every strategy, as in
+   * <code>closed-form=20.0,subset-dp=8.5</code>.
+   */
+  public synchronized String getCalibration() {
+    StringBuilder strBldr = new StringBuilder();
+    for (Strategy strategy : Strategy.values()) {
+      if (strBldr.length() > 0) {
+        strBldr.append(',');
+      }
+      strBldr.append(strategy.getName());
+      strBldr.append('=');
+      strBldr.append(String.format(Locale.ROOT, "%.4g",
+          getNanosPerUnit(strategy)));
+    }
+    return strBldr.toString();
+  }
+
+  /**
+   * Starts the strategies listed in <code>calibration</code>, in the form
+   * of {@link #getCalibration()}, from the given factors instead.
+   *
+   * @throws IllegalArgumentException if a strategy is unknown or a factor
+   *     is not positive.
+   */
+  public synchronized void setCalibration(String calibration) {
+    String[] pair;
+    double factor;
+    Strategy strategy;
+    for (String entry : calibration.split(",")) {
+      if (entry.trim().isEmpty()) {
+        continue;
+      }
+      pair = entry.split("=");
+      if (pair.length != 2) {
+        throw new IllegalArgumentException("Expected strategy=factor: "
+            + entry);
+      }
+      strategy = Strategy.forName(pair[0].trim());
+      factor = Double.parseDouble(pair[1].trim());
+      if (!(factor > 0.0)) {
+        throw new IllegalArgumentException("Factor must be positive: "
+            + entry);
+      }
+      logFactorSums[strategy.ordinal()] = Math.log(factor);
+      runs[strategy.ordinal()] = 1;
+    }
+  }
+
+  /** Chooses a strategy for <code>scc</code> without running it. */
+  public <T> Plan plan(SCC<T> scc) {
+    CompactGraph<T> graph = scc.getCompactGraph();
+    int n = graph.size();
+    int m = graph.edgeCount();
+    int in = scc.getInNodes().size();
+    int out = scc.getOutNodes().size();
+    SccShape shape = SccShape.classify(graph);
+    int feedback = -1;
+    double[] predicted = new double[Strategy.values().length];
+    double logPaths = 0.0;
+    double degree = n == 0 ? 0.0 : (double) m / n;
+    double base = (double) in * (n + m);
+    boolean[] keep;
+    int[] feedbackSet;
+    Strategy best = Strategy.SAMPLING;
+    Arrays.fill(predicted, Double.NaN);
+
+    if (shape != SccShape.GENERAL) {
+      predicted(predicted, Strategy.CLOSED_FORM, base);
+    } else {
+      keep = new boolean[n];
+      Arrays.fill(keep, true);
+      feedbackSet = FeedbackVertexSetEstimator.feedbackVertexSet(graph, keep,
+          FeedbackVertexSetEstimator.MAX_FOUND_FACTOR
+              * FeedbackVertexSetEstimator.DEFAULT_MAX_FEEDBACK);
+      feedback = feedbackSet == null ? -1 : feedbackSet.length;
+      for (int v = 0; v < n; ++v) {
+        logPaths += Math.log(Math.max(1, graph.outDegree(v)));
+      }
+      if (n <= ExactEstimator.DEFAULT_MAX_VERTICES) {
+        predicted(predicted, Strategy.SUBSET_DP, base + in * Math.min(
+            Math.min(Math.pow(2, n - 1),
+                (double) n * ExactEstimator.DEFAULT_MAX_STATES),
+            n * Math.exp(logPaths)) * (n + degree));
+      }
+      if (feedback != -1
+          && feedback <= FeedbackVertexSetEstimator.DEFAULT_MAX_FEEDBACK) {
+        predicted(predicted, Strategy.FEEDBACK_VERTEX_SET,
+            base + (double) in * out * sequences(feedback) * n
+                * (1 + degree));
+      }
+      predicted(predicted, Strategy.ENUMERATION,
+          base + (double) in * out * Math.exp(logPaths));
+      predicted(predicted, Strategy.SAMPLING,
+          base + (double) in * PathApproximation.MAX_SAMPLES * (n + m) / 2);
+    }
+
+    for (Strategy strategy : Strategy.values()) {
+      if (strategy.isExact()
+          && !Double.isNaN(predicted[strategy.ordinal()])
+          && (best == Strategy.SAMPLING
+              || predicted[strategy.ordinal()] < predicted[best.ordinal()])) {
+        best = strategy;
+      }
+    }
+    if (best != Strategy.SAMPLING
+        && predicted[best.ordinal()] > EXACT_PREFERENCE
+            * predicted[Strategy.SAMPLING.ordinal()]) {
+      best = Strategy.SAMPLING;
+    }
+    return new Plan(scc.getSccId(), n, m, in, out, feedback, shape, best,
+        predicted);
+  }
+
+  private void predicted(double[] predicted, Strategy strategy,
+      double units) {
+    predicted[strategy.ordinal()] = units * getNanosPerUnit(strategy);
+  }
+
+  /** The number of ordered subsets of a set of <code>f</code> vertices. */
+  private static double sequences(int f) {
+    double total = 0.0;
+    double sequences = 1.0;
+    for (int k = 0; k <= f; ++k) {
+      total += sequences;
+      sequences *= f - k;
+    }
+    return total;
+  }
+
+  /**
+   * Plans <code>scc</code>, computes its internal distances with the
+   * chosen strategy and recalibrates the strategy from the time taken.
+   */
+  public <T> Plan run(SCC<T> scc) {
+    Plan plan = plan(scc);
+    // The closed form reuses the shape of the plan.
+    PathEstimator engine = plan.strategy == Strategy.CLOSED_FORM
+        ? new ClosedFormEstimator(plan.shape, getEngine(Strategy.SAMPLING))
+        : getEngine(plan.strategy);
+    long started = System.nanoTime();
+    scc.computeInternalDistances(engine);
+    plan.actualNanos = System.nanoTime() - started;
+    record(plan);
+    return plan;
+  }
+
+  private synchronized void record(Plan plan) {
+    int i = plan.strategy.ordinal();
+    double predicted = plan.getPredictedNanos(plan.strategy);
+    plans.add(plan);
+    if (predicted > 0.0) {
+      logFactorSums[i] += Math.log(Math.max(1, plan.actualNanos)
+          / predicted * getNanosPerUnit(plan.strategy));
+      ++runs[i];
+    }
+  }
+
+  public synchronized List<Plan> getPlans() {
+    return new ArrayList<>(plans);
+  }
+
+  /**
+   * One line per component run so far, followed by the totals of the
+   * predicted and actual times and the current calibration.
+   */
+  public synchronized String explain() {
+    StringBuilder strBldr = new StringBuilder();
+    double predicted = 0.0;
+    long actual = 0;
+    for (Plan plan : plans) {
+      strBldr.append(plan);
+      strBldr.append("\n");
+      predicted += plan.getPredictedNanos(plan.strategy);
+      actual += plan.actualNanos;
+    }
+    strBldr.append(String.format(Locale.ROOT,
+        "%d components, predicted %.3g ms, actual %.3g ms%n",
+        plans.size(), predicted / 1e6, actual / 1e6));
+    strBldr.append("calibration: ");
+    strBldr.append(getCalibration());
+    strBldr.append("\n");
+    return strBldr.toString();
+  }
+
+  /**
+   * Counts by the closed form of {@link SccShape}, leaving components
+   * without one to <code>fallback</code>. The shape is that of the
+   * component planned, or classified on every call if null.
+   */
+  private static class ClosedFormEstimator implements PathEstimator {
+
+    private final SccShape shape;
+    private final PathEstimator fallback;
+
+    ClosedFormEstimator(SccShape shape, PathEstimator fallback) {
+      this.shape = shape;
+      this.fallback = fallback;
+    }
+
+    @Override
+    public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+        List<T> ends) {
+      return (shape == null ? SccShape.classify(graph) : shape)
+          .estimate(graph, start, ends, fallback);
+    }
+  }
+
+  /** Counts by enumerating the paths to each end. */
+  private static class EnumerationEstimator implements PathEstimator {
+
+    @Override
+    public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+        List<T> ends) {
+      PathEstimate[] estimates = new PathEstimate[ends.size()];
+      double[] result;
+      for (int i = 0; i < estimates.length; ++i) {
+        result = PathFinder.uniquePaths(graph, start, ends.get(i));
+        estimates[i] = PathEstimate.exact(result[0], result[1]);
+      }
+      return estimates;
+    }
+  }
+}
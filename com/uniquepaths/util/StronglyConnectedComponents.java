@@ -1,130 +1,228 @@
 package com.uniquepaths.util;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 
 public class StronglyConnectedComponents {
 
+  /** Graphs with at least this many vertices are decomposed in parallel. */
+  public static final int PARALLEL_THRESHOLD = 1 << 16;
+
   public static <T> List<SCC<T>> getStronglyConnectedComponents(
       Graph<T> graph) {
-    int index = 0;
-    HashMap<Node<T>, Integer> lowLinkMap = new HashMap<>();
-    HashMap<Node<T>, Integer> indexMap = new HashMap<>();
-    Graph<T> transpose = getTranspose(graph);
-    Stack<Node<T>> stack = new Stack<>();
-    List<SCC<T>> sccList = new ArrayList<>();
-    Node<T> curr;
-
-    for (Map.Entry<T, Node<T>> entry : graph.getNodes()) {
-      curr = entry.getValue();
-      if (indexMap.get(curr) == null) {
-        strongConnect(graph, transpose, curr, sccList, lowLinkMap, indexMap,
-            stack, index);
+    return getStronglyConnectedComponents(graph,
+        graph.size() >= PARALLEL_THRESHOLD
+            && Runtime.getRuntime().availableProcessors() > 1);
+  }
+
+  /**
+   * Decomposes <code>graph</code> into its strongly connected components.
+   *
+   * @param graph the graph to decompose.
+   * @param parallel whether to use
+   *     {@link ParallelStronglyConnectedComponents} rather than the
+   *     sequential Tarjan decomposition. Both produce the same components.
+   *
+   * @return the components in reverse topological order, where the
+   *     position of each component in the list is its id.
+   *
+   */
+  public static <T> List<SCC<T>> getStronglyConnectedComponents(
+      Graph<T> graph, boolean parallel) {
+    CompactGraph<T> compact = graph.getCompactGraph();
+    int[] component = parallel
+        ? ParallelStronglyConnectedComponents.getComponentIds(compact)
+        : getComponentIds(compact);
+    int count = getComponentCount(component);
+    int[] offsets = new int[count + 1];
+    int[] members = new int[component.length];
+    int[] fill = new int[count];
+    List<SCC<T>> sccList = new ArrayList<>(count);
+    SCC<T> scc;
+    Node<T> node;
+
+    // Bucket the vertices by component so each SCC is built from a
+    // contiguous run of members.
+    for (int v = 0; v < component.length; ++v) {
+      ++offsets[component[v] + 1];
+    }
+    for (int c = 0; c < count; ++c) {
+      offsets[c + 1] += offsets[c];
+    }
+    for (int v = 0; v < component.length; ++v) {
+      members[offsets[component[v]] + fill[component[v]]++] = v;
+    }
+
+    for (int c = 0; c < count; ++c) {
+      scc = new SCC<>();
+      scc.setSccId(c);
+      for (int i = offsets[c]; i < offsets[c + 1]; ++i) {
+        node = graph.getNode(compact.valueOf(members[i]));
+        node.setSccId(c);
+        scc.addNode(node);
       }
+      scc.addEdges(graph);
+      sccList.add(scc);
     }
     return sccList;
   }
 
-  private static <T> void strongConnect(Graph<T> graph, Graph<T> transpose,
-      Node<T> node, List<SCC<T>> sccList, HashMap<Node<T>, Integer> lowLinkMap,
-      HashMap<Node<T>, Integer> indexMap, Stack<Node<T>> stack, int index) {
-    Node<T> edgeNode;
-    Node<T> stackNode;
-    SCC<T> scc;
-    int sccId;
-
-    indexMap.put(node, index);
-    lowLinkMap.put(node, index);
-    ++index;
-    stack.push(node);
-    node.setOnStack(true);
-
-    for (Map.Entry<Node<T>, Integer> edge : node.getEdges()) {
-      edgeNode = edge.getKey();
-      if (!indexMap.containsKey(edgeNode)) {
-        strongConnect(graph, transpose, edgeNode, sccList, lowLinkMap,
-            indexMap, stack, index);
-        lowLinkMap.put(node,
-            Integer.min(lowLinkMap.get(node), lowLinkMap.get(edgeNode)));
-      } else if (edgeNode.onStack()) {
-        lowLinkMap.put(node,
-            Integer.min(lowLinkMap.get(node), lowLinkMap.get(edgeNode)));
+  /**
+   * Labels every vertex of <code>graph</code> with the id of its strongly
+   * connected component. Components are numbered in the order Tarjan's
+   * algorithm completes them, which is a reverse topological order of the
+   * condensed graph.
+   *
+   * The depth-first search is driven by an explicit stack of vertices and
+   * per-vertex edge cursors, so the depth of the graph is bounded only by
+   * the size of the arrays and never by the size of the thread stack.
+   *
+   * @param graph the graph to decompose.
+   *
+   * @return an array mapping each vertex id to its component id.
+   *
+   */
+  public static <T> int[] getComponentIds(CompactGraph<T> graph) {
+    int n = graph.size();
+    // Once a vertex has been assigned to a component its dfs index is no
+    // longer needed, so the same array doubles as the result.
+    int[] indexArr = new int[n];
+    int[] lowLink = new int[n];
+    int[] stack = new int[n];
+    int[] callStack = new int[n];
+    int[] cursor = new int[n];
+    BitSet onStack = new BitSet(n);
+    int index = 0;
+    int stackSize = 0;
+    int depth;
+    int sccId = 0;
+    int v;
+    int w;
+
+    Arrays.fill(indexArr, -1);
+    for (int root = 0; root < n; ++root) {
+      if (indexArr[root] != -1) {
+        continue;
+      }
+      depth = 0;
+      callStack[depth++] = root;
+      indexArr[root] = index;
+      lowLink[root] = index;
+      ++index;
+      cursor[root] = graph.edgeStart(root);
+      stack[stackSize++] = root;
+      onStack.set(root);
+
+      while (depth > 0) {
+        v = callStack[depth - 1];
+        if (cursor[v] < graph.edgeEnd(v)) {
+          w = graph.target(cursor[v]++);
+          if (indexArr[w] == -1) {
+            callStack[depth++] = w;
+            indexArr[w] = index;
+            lowLink[w] = index;
+            ++index;
+            cursor[w] = graph.edgeStart(w);
+            stack[stackSize++] = w;
+            onStack.set(w);
+          } else if (onStack.get(w)) {
+            lowLink[v] = Math.min(lowLink[v], indexArr[w]);
+          }
+          continue;
+        }
+
+        --depth;
+        if (lowLink[v] == indexArr[v]) {
+          do {
+            w = stack[--stackSize];
+            onStack.clear(w);
+            indexArr[w] = sccId;
+          } while (w != v);
+          ++sccId;
+        }
+        if (depth > 0) {
+          w = callStack[depth - 1];
+          lowLink[w] = Math.min(lowLink[w], lowLink[v]);
+        }
       }
     }
+    return indexArr;
+  }
 
-    if (lowLinkMap.get(node) == indexMap.get(node)) {
-      scc = new SCC<>();
-      sccId = sccList.size();
-      do {
-        stackNode = stack.pop();
-        stackNode.setOnStack(false);
-        scc.addNode(stackNode);
-        stackNode.setSccId(sccId);
-        scc.setSccId(sccId);
-      } while (stackNode != node);
-      scc.addEdges(graph, transpose);
-      sccList.add(scc);
+  /** Number of components in a labelling from {@link #getComponentIds}. */
+  public static int getComponentCount(int[] componentIds) {
+    int count = 0;
+    for (int c : componentIds) {
+      count = Math.max(count, c + 1);
     }
+    return count;
   }
 
+  /**
+   * Contracts every component of <code>sccList</code> into a
+   * {@link SuperNode}. The contraction itself is done by a
+   * {@link Condensation}, which inspects each edge of <code>graph</code>
+   * once; the super nodes read their edge counts and boundary edges from
+   * it.
+   *
+   * @param sccList the components of <code>graph</code>, where the
+   *     position of each component in the list is its id.
+   * @param graph the graph the components were computed from.
+   *
+   * @return the contracted graph, whose nodes are keyed by the first
+   *     expanded node of each component.
+   *
+   */
   public static <T> Graph<T> contractSCCs(List<SCC<T>> sccList,
        Graph<T> graph) {
     Graph<T> contracted = new Graph<>();
-    SCC<T> scc;
-    SuperNode<T> superNode;
-    Node<T> adjNode;
-    T value;
-    int sccId;
+    CompactGraph<T> compact = graph.getCompactGraph();
+    int[] component = new int[compact.size()];
+    Condensation<T> condensation;
+    CompactGraph<Integer> dag;
+    List<T> representatives = new ArrayList<>(sccList.size());
 
     for (int i = 0; i < sccList.size(); ++i) {
-      scc = sccList.get(i);
-      contracted.addSuperNode(i, scc);
+      for (Node<T> node : sccList.get(i).getExpandedNodes()) {
+        component[compact.indexOf(node.getValue())] = i;
+      }
+      representatives.add(sccList.get(i).getExpandedNodes().get(0)
+          .getValue());
     }
+    condensation = new Condensation<>(compact, component, sccList.size());
     for (int i = 0; i < sccList.size(); ++i) {
-      scc = sccList.get(i);
-      value = (T) scc.getExpandedNodes().get(0).getValue();
-      for (Node<T> expandedNode : scc.getExpandedNodes()) {
-        for (Map.Entry<Node<T>, Integer> edge : expandedNode.getEdges()) {
-          adjNode = edge.getKey();
-          if (!scc.containsNode(adjNode)) {
-            sccId = adjNode.getSccId();
-            contracted.addEdge(value,
-                sccList.get(sccId).getExpandedNodes().get(0).getValue());
-            superNode = (SuperNode<T>) contracted.getNode(value);
-            for (Node<T> outNode : scc.getOutNodes()) {
-              for (Map.Entry<Node<T>, Integer> outEdge : outNode.getEdges()) {
-                Node<T> outEdgeNode = outEdge.getKey();
-                if (!scc.containsNode(outEdgeNode)) {
-                  int externalSCCId = outEdgeNode.getSccId();
-                  superNode.incrementEdgeCount(sccList.get(externalSCCId)
-                        .getExpandedNodes().get(0).getValue());
-                  superNode.addEdgeWeight(
-                        sccList.get(externalSCCId).getExpandedNodes().get(0)
-                            .getValue(), outEdgeNode.getValue(),
-                                outEdge.getValue());
-                }
-              }
-            }
-          }
-        }
+      contracted.addSuperNode(i, sccList.get(i), condensation);
+    }
+    // Graph edges carry no weight; the number of original edges joining
+    // two components stays available through the Condensation.
+    dag = condensation.getDag();
+    for (int c = 0; c < dag.size(); ++c) {
+      for (int k = dag.edgeStart(c); k < dag.edgeEnd(c); ++k) {
+        contracted.addEdge(representatives.get(c),
+            representatives.get(dag.target(k)));
       }
     }
     return contracted;
   }
 
+  /**
+   * Builds the transpose of <code>graph</code>, every edge turned around.
+   *
+   * @deprecated in-edges are served by {@link Graph#getCompactGraph()}
+   *     without copying the graph; this copy is only kept for callers of
+   *     the former API.
+   */
+  @Deprecated
   public static <T> Graph<T> getTranspose(Graph<T> graph) {
+    CompactGraph<T> compact = graph.getCompactGraph();
     Graph<T> transpose = new Graph<>();
-    T startVal;
-    T endVal;
-    for (Map.Entry<T, Node<T>> entry : graph.getNodes()) {
-      startVal = entry.getKey();
-      for (Map.Entry<Node<T>, Integer> edge : entry.getValue().getEdges()) {
-        endVal = edge.getKey().getValue();
-        transpose.addEdge(endVal, startVal);
+    for (int v = 0; v < compact.size(); ++v) {
+      for (int e = compact.inEdgeStart(v); e < compact.inEdgeEnd(v); ++e) {
+        transpose.addEdge(compact.valueOf(v),
+            compact.valueOf(compact.source(e)));
       }
     }
     return transpose;
@@ -146,4 +244,26 @@ public class StronglyConnectedComponents {
     }
     return permutations;
   }
+
+  /**
+   * Like {@link #getPermutedSCCs(List)}, but keeps all out-nodes of an SCC
+   * together so that a single set of walks per in-node scores every
+   * out-node, see {@link SCC#computeInternalDistances()}.
+   */
+  public static <T> List<SCC<T>> getInNodePermutedSCCs(
+      List<SCC<T>> sccList) {
+    SCC<T> newScc;
+    List<SCC<T>> permutations = new ArrayList<>();
+    for (SCC<T> scc : sccList) {
+      for (Node<T> inNode : scc.getInNodes()) {
+        newScc = scc.clone();
+        newScc.addInNode(inNode.getValue());
+        for (Node<T> outNode : scc.getOutNodes()) {
+          newScc.addOutNode(outNode.getValue());
+        }
+        permutations.add(newScc);
+      }
+    }
+    return permutations;
+  }
 }
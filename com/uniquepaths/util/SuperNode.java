@@ -10,47 +10,52 @@ public class SuperNode<T> extends Node<T> {
   private Set<Node<T>> contractedNodes;
   public final SCC<T> scc;
   private int sccNumber;
-  protected Map<T, Integer> outEdges;
-  protected Map<T, Map<T, Integer>> weights;
+  private Condensation<T> condensation;
 
-  public SuperNode(int sccNumber, SCC<T> scc) {
+  public SuperNode(int sccNumber, SCC<T> scc,
+      Condensation<T> condensation) {
     super(scc.getExpandedNodes().get(0).getValue());
     this.contractedNodes = new HashSet<>();
-    this.outEdges = new HashMap<>();
-    this.weights = new HashMap<>();
     this.scc = scc;
     this.sccNumber = sccNumber;
+    this.condensation = condensation;
   }
 
   public int getSccNumber() {
     return sccNumber;
   }
 
-  public void incrementEdgeCount(T superNodeVal) {
-    if (!outEdges.containsKey(superNodeVal)) {
-      outEdges.put(superNodeVal, 1);
-    } else {
-      outEdges.put(superNodeVal, outEdges.get(superNodeVal) + 1);
-    }
+  public Condensation<T> getCondensation() {
+    return condensation;
   }
 
+  /** Number of edges leaving this component for the given super node. */
   public int getEdgeCount(T superNodeVal) {
-    return outEdges.get(superNodeVal);
+    int k = findEdge(superNodeVal);
+    return k == -1 ? 0 : condensation.multiplicity(k);
   }
 
-  public void addEdgeWeight(T superNodeVal, T nodeVal, int w) {
-    Map<T, Integer> weight;
-    if (!weights.containsKey(superNodeVal)) {
-      weight = new HashMap<>();
-      weight.put(nodeVal, w);
-      weights.put(superNodeVal, weight);
-    } else {
-      weight = weights.get(superNodeVal);
-      weight.put(nodeVal, w);
+  /**
+   * Weights of the edges leaving this component for the given super node,
+   * keyed by the node they enter.
+   */
+  public Map<T, Integer> getEdgeWeights(T superNodeVal) {
+    Map<T, Integer> weights = new HashMap<>();
+    CompactGraph<T> graph = condensation.getGraph();
+    int k = findEdge(superNodeVal);
+    if (k != -1) {
+      for (int i = condensation.boundaryStart(k);
+          i < condensation.boundaryEnd(k); ++i) {
+        weights.put(graph.valueOf(condensation.boundaryTarget(i)),
+            condensation.boundaryWeight(i));
+      }
     }
+    return weights;
   }
 
-  public Map<T, Integer> getEdgeWeights(T superNodeVal) {
-    return weights.get(superNodeVal);
+  private int findEdge(T superNodeVal) {
+    int v = condensation.getGraph().indexOf(superNodeVal);
+    return v == -1 ? -1
+        : condensation.findEdge(sccNumber, condensation.getComponent(v));
   }
 }
@@ -15,8 +15,10 @@ import com.uniquepaths.util.Edge;
 import com.uniquepaths.util.Graph;
 import com.uniquepaths.util.Node;
 import com.uniquepaths.util.PathApproximation;
+import com.uniquepaths.util.PathEstimators;
 import com.uniquepaths.util.PathFinder;
 import com.uniquepaths.util.SCC;
+import com.uniquepaths.util.StrategyPlanner;
 import com.uniquepaths.util.StronglyConnectedComponents;
 
 public class App {
@@ -33,14 +35,25 @@ public class App {
     double[] result;
     int s = 1;
     int e = 21;
+    StrategyPlanner planner = new StrategyPlanner(PathEstimators.forName(
+        System.getProperty(PathEstimators.CONFIG_KEY,
+            StrategyPlanner.DEFAULT_SAMPLER)));
+    String calibration = System.getProperty(StrategyPlanner.CONFIG_KEY);
+    if (calibration != null) {
+      planner.setCalibration(calibration);
+    }
 
     System.out.println("Stage 1: Preparation; Pre mapreduce stage");
     graph = readGraphFromFile(fileName);
+    System.out.print("Relevant vertices: ");
+    System.out.print(graph.size() + " -> ");
+    graph = graph.relevantSubgraph(s, e);
+    System.out.println(graph.size());
     sccs = StronglyConnectedComponents.getStronglyConnectedComponents(graph);
     System.out.println("Stage 2: Mapper Stage");
     System.out.println("Number of SCCS: " + sccs.size());
     for (SCC<Integer> scc : sccs) {
-      scc.computeInternalDistances();
+      planner.run(scc);
       if (scc.containsNode(s)) {
         scc.getInNodes().clear();
         scc.addInNode(s);
@@ -59,13 +72,15 @@ public class App {
       }
     }
 
-    permuted = StronglyConnectedComponents.getPermutedSCCs(sccs);
+    permuted = StronglyConnectedComponents.getInNodePermutedSCCs(sccs);
     System.out.println("original: " + sccs.size()
         + "    permutations: " + permuted.size());
     for (SCC<Integer> scc : permuted) {
-      scc.computeInternalDistances();
+      planner.run(scc);
     }
 
+    System.out.print(planner.explain());
+
     System.out.println("Stage 3: Reduce");
     contracted = StronglyConnectedComponents.contractSCCs(sccs, graph);
     Node<Integer> start = graph.getNode(s);
@@ -78,7 +93,7 @@ public class App {
     System.out.println("MapReduce Results: ");
     System.out.println("\tNumber of Paths: " + result[0]);
     System.out.println("\tAverage length of paths: " + result[1]);
-    result = PathFinder.uniquePaths(graph, s, e);
+    result = PathFinder.uniquePathsParallel(graph.getCompactGraph(), s, e);
     System.out.println("Actual Results: ");
     System.out.println("\tNumber of Paths: " + result[0]);
     System.out.println("\tAverage length of paths: " + result[1]);
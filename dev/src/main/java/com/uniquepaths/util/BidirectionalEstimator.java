@@ -0,0 +1,123 @@
+package com.uniquepaths.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs another engine forwards from the start, or backwards from the end on
+ * {@link CompactGraph#reversed()}, whichever looks cheaper for each end.
+ * The simple paths of the reversed graph from the end to the start are
+ * those of the graph turned around, so both directions estimate the same
+ * count and average length.
+ *
+ * Walks pay most for the branching they meet early on, so the direction is
+ * chosen by probing the first <code>PROBE_DEPTH</code> breadth-first
+ * levels from either side, counting only vertices that lie on some path
+ * from the start to the end. The side whose levels grow less is walked
+ * from; ties walk forwards. All forward ends are passed to the engine in
+ * one call so that it can still share work between them.
+ */
+public class BidirectionalEstimator implements PathEstimator {
+
+  static final int PROBE_DEPTH = 3;
+
+  private final PathEstimator estimator;
+
+  public BidirectionalEstimator(PathEstimator estimator) {
+    this.estimator = estimator;
+  }
+
+  public PathEstimator getEstimator() {
+    return estimator;
+  }
+
+  @Override
+  public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    PathEstimate[] estimates = new PathEstimate[ends.size()];
+    List<T> forwardEnds = new ArrayList<>();
+    List<Integer> forward = new ArrayList<>();
+    PathEstimate[] results;
+    int s = graph.indexOf(start);
+    int e;
+    for (int i = 0; i < estimates.length; ++i) {
+      e = graph.indexOf(ends.get(i));
+      if (s == -1 || e == -1 || s == e || !isBackwardCheaper(graph, s, e)) {
+        forwardEnds.add(ends.get(i));
+        forward.add(i);
+      } else {
+        estimates[i] = estimator.estimate(graph.reversed(), ends.get(i),
+            Collections.singletonList(start))[0];
+      }
+    }
+    if (!forwardEnds.isEmpty()) {
+      results = estimator.estimate(graph, start, forwardEnds);
+      for (int i = 0; i < results.length; ++i) {
+        estimates[forward.get(i)] = results[i];
+      }
+    }
+    return estimates;
+  }
+
+  /**
+   * Whether the vertices on paths from <code>start</code> to
+   * <code>end</code> branch less near the end, walking backwards, than
+   * near the start.
+   */
+  static <T> boolean isBackwardCheaper(CompactGraph<T> graph, int start,
+      int end) {
+    boolean[] fromStart = graph.reversed().coReachable(new int[]{start});
+    boolean[] toEnd = graph.coReachable(new int[]{end});
+    boolean[] relevant = new boolean[graph.size()];
+    for (int v = 0; v < relevant.length; ++v) {
+      relevant[v] = fromStart[v] && toEnd[v];
+    }
+    return branching(graph.reversed(), end, relevant)
+        < branching(graph, start, relevant);
+  }
+
+  /**
+   * The product over the first <code>PROBE_DEPTH</code> levels of a
+   * breadth-first search from <code>root</code> of the average number of
+   * relevant out-neighbours of a vertex of the level.
+   */
+  private static <T> double branching(CompactGraph<T> graph, int root,
+      boolean[] relevant) {
+    int[] level = new int[graph.size()];
+    int[] queue = new int[graph.size()];
+    int head = 0;
+    int tail = 0;
+    int levelEnd;
+    int edges;
+    int vertices;
+    int curr;
+    int next;
+    double product = 1.0;
+    Arrays.fill(level, -1);
+    level[root] = 0;
+    queue[tail++] = root;
+    for (int depth = 0; depth < PROBE_DEPTH && head < tail; ++depth) {
+      levelEnd = tail;
+      edges = 0;
+      vertices = levelEnd - head;
+      while (head < levelEnd) {
+        curr = queue[head++];
+        for (int i = graph.edgeStart(curr); i < graph.edgeEnd(curr); ++i) {
+          next = graph.target(i);
+          if (!relevant[next]) {
+            continue;
+          }
+          ++edges;
+          if (level[next] == -1) {
+            level[next] = depth + 1;
+            queue[tail++] = next;
+          }
+        }
+      }
+      product = product * edges/vertices;
+    }
+    return product;
+  }
+}
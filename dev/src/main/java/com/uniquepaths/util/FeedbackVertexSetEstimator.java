@@ -0,0 +1,439 @@
+package com.uniquepaths.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the paths of near-acyclic components exactly, in time exponential
+ * only in the size of a feedback vertex set, and leaves the others to
+ * another engine.
+ *
+ * Once the vertices of a small feedback vertex set <code>F</code> are
+ * removed, the vertices on paths from the start to the end form a DAG. A
+ * simple path visits some of <code>F</code> in some order and crosses the
+ * DAG between them, so it splits into segments from the start through each
+ * vertex of the sequence to the end, which share no vertex. For every
+ * ordered subset of <code>F</code> the disjoint segments are counted
+ * together by moving one token per segment through the DAG, always the
+ * token lowest in topological order (as in the disjoint paths algorithm
+ * of Fortune, Hopcroft and Wyllie): a token can then only meet another at
+ * the vertex it steps to, which is refused, and every set of disjoint
+ * segments is produced by exactly one sequence of moves. The tuples of
+ * token positions are kept with their numbers of paths and length sums,
+ * as doubles: they are exact up to 2^53 and beyond that only rounded,
+ * which components with this many paths need.
+ *
+ * The feedback vertex set is the set of targets of the back edges of a
+ * depth-first search, from which vertices are dropped again as long as
+ * the rest stays acyclic; the search gives up early if the back edges
+ * have more than eight times <code>maxFeedback</code> targets. If the set
+ * has more than <code>maxFeedback</code> vertices, a sequence needs more
+ * than <code>maxStates</code> tuples or a tuple of positions does not fit
+ * in a long, the end is handed to the fallback engine.
+ */
+public class FeedbackVertexSetEstimator implements PathEstimator {
+
+  public static final int DEFAULT_MAX_FEEDBACK = 6;
+  public static final int DEFAULT_MAX_STATES = 1 << 16;
+  // The search for a feedback vertex set gives up once the back edges
+  // have more than this many times the vertices that can be handled.
+  static final int MAX_FOUND_FACTOR = 8;
+
+  private final PathEstimator fallback;
+  private final int maxFeedback;
+  private final int maxStates;
+
+  public FeedbackVertexSetEstimator(PathEstimator fallback) {
+    this(fallback, DEFAULT_MAX_FEEDBACK, DEFAULT_MAX_STATES);
+  }
+
+  public FeedbackVertexSetEstimator(PathEstimator fallback,
+      int maxFeedback, int maxStates) {
+    this.fallback = fallback;
+    this.maxFeedback = maxFeedback;
+    this.maxStates = maxStates;
+  }
+
+  public PathEstimator getFallback() {
+    return fallback;
+  }
+
+  @Override
+  public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    PathEstimate[] estimates = new PathEstimate[ends.size()];
+    List<T> rest = new ArrayList<>();
+    List<Integer> restIndices = new ArrayList<>();
+    PathEstimate[] results;
+    int s = graph.indexOf(start);
+    int e;
+    for (int i = 0; i < estimates.length; ++i) {
+      e = graph.indexOf(ends.get(i));
+      if (s == -1 || e == -1) {
+        estimates[i] = PathEstimate.exact(0.0, 0.0);
+      } else if (s == e) {
+        estimates[i] = PathEstimate.exact(1.0, 0.0);
+      } else {
+        estimates[i] = new Counter<>(graph, s, e, maxFeedback, maxStates)
+            .count();
+      }
+      if (estimates[i] == null) {
+        rest.add(ends.get(i));
+        restIndices.add(i);
+      }
+    }
+    if (!rest.isEmpty()) {
+      results = fallback.estimate(graph, start, rest);
+      for (int i = 0; i < results.length; ++i) {
+        estimates[restIndices.get(i)] = results[i];
+      }
+    }
+    return estimates;
+  }
+
+  /**
+   * A feedback vertex set of the subgraph induced by the vertices marked
+   * in <code>keep</code>: the targets of the back edges of a depth-first
+   * search, less those whose return leaves the subgraph acyclic.
+   *
+   * Each return is checked by a topological sort, so the search gives up
+   * before that if the back edges have more than <code>maxFound</code>
+   * targets.
+   *
+   * @return the feedback vertex set, or null if the search gave up.
+   */
+  static <T> int[] feedbackVertexSet(CompactGraph<T> graph, boolean[] keep,
+      int maxFound) {
+    int n = graph.size();
+    // 0 for unvisited, 1 while on the search path, 2 once finished.
+    int[] state = new int[n];
+    int[] callStack = new int[n];
+    int[] cursor = new int[n];
+    boolean[] feedback = new boolean[n];
+    boolean[] rest = keep.clone();
+    List<Integer> found = new ArrayList<>();
+    int[] result;
+    int count = 0;
+    int depth;
+    int v;
+    int w;
+    for (int root = 0; root < n; ++root) {
+      if (!keep[root] || state[root] != 0) {
+        continue;
+      }
+      depth = 0;
+      callStack[depth++] = root;
+      state[root] = 1;
+      cursor[root] = graph.edgeStart(root);
+      while (depth > 0) {
+        v = callStack[depth - 1];
+        if (cursor[v] < graph.edgeEnd(v)) {
+          w = graph.target(cursor[v]++);
+          if (!keep[w]) {
+            continue;
+          }
+          if (state[w] == 0) {
+            state[w] = 1;
+            cursor[w] = graph.edgeStart(w);
+            callStack[depth++] = w;
+          } else if (state[w] == 1 && !feedback[w]) {
+            feedback[w] = true;
+            found.add(w);
+            if (found.size() > maxFound) {
+              return null;
+            }
+          }
+          continue;
+        }
+        state[v] = 2;
+        --depth;
+      }
+    }
+    for (int f : found) {
+      rest[f] = false;
+    }
+    for (int f : found) {
+      rest[f] = true;
+      if (topologicalOrder(graph, rest) == null) {
+        rest[f] = false;
+      }
+    }
+    result = new int[found.size()];
+    for (int f : found) {
+      if (!rest[f]) {
+        result[count++] = f;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * The vertices marked in <code>keep</code> in topological order of the
+   * subgraph they induce, or null if it has a cycle.
+   */
+  static <T> int[] topologicalOrder(CompactGraph<T> graph, boolean[] keep) {
+    int n = graph.size();
+    int[] inDegree = new int[n];
+    int[] order;
+    int count = 0;
+    int head = 0;
+    int tail = 0;
+    int w;
+    for (int v = 0; v < n; ++v) {
+      if (!keep[v]) {
+        continue;
+      }
+      ++count;
+      for (int i = graph.edgeStart(v); i < graph.edgeEnd(v); ++i) {
+        if (keep[graph.target(i)]) {
+          ++inDegree[graph.target(i)];
+        }
+      }
+    }
+    order = new int[count];
+    for (int v = 0; v < n; ++v) {
+      if (keep[v] && inDegree[v] == 0) {
+        order[tail++] = v;
+      }
+    }
+    while (head < tail) {
+      for (int i = graph.edgeStart(order[head]);
+          i < graph.edgeEnd(order[head]); ++i) {
+        w = graph.target(i);
+        if (keep[w] && --inDegree[w] == 0) {
+          order[tail++] = w;
+        }
+      }
+      ++head;
+    }
+    return tail == count ? order : null;
+  }
+
+  /** The count of the paths from one start to one end. */
+  private static final class Counter<T> {
+
+    private final CompactGraph<T> graph;
+    private final int start;
+    private final int end;
+    private final int maxFeedback;
+    private final int maxStates;
+    // position[v] is one more than the topological position of v among
+    // the interior vertices, or 0 if v is not interior.
+    private final int[] position;
+    private int[] vertexAt;
+    private int[] feedback;
+    private double paths;
+    private double lengths;
+    private long touched;
+    private boolean failed;
+
+    Counter(CompactGraph<T> graph, int start, int end, int maxFeedback,
+        int maxStates) {
+      this.graph = graph;
+      this.start = start;
+      this.end = end;
+      this.maxFeedback = maxFeedback;
+      this.maxStates = maxStates;
+      this.position = new int[graph.size()];
+    }
+
+    /** @return the exact estimate, or null if it cannot be computed. */
+    PathEstimate count() {
+      boolean[] fromStart = graph.reversed().coReachable(new int[]{start});
+      boolean[] toEnd = graph.coReachable(new int[]{end});
+      boolean[] interior = new boolean[graph.size()];
+      if (!fromStart[end]) {
+        return PathEstimate.exact(0.0, 0.0);
+      }
+      for (int v = 0; v < interior.length; ++v) {
+        interior[v] = fromStart[v] && toEnd[v] && v != start && v != end;
+      }
+      feedback = feedbackVertexSet(graph, interior,
+          MAX_FOUND_FACTOR * maxFeedback);
+      if (feedback == null || feedback.length > maxFeedback) {
+        return null;
+      }
+      for (int f : feedback) {
+        interior[f] = false;
+      }
+      vertexAt = topologicalOrder(graph, interior);
+      for (int i = 0; i < vertexAt.length; ++i) {
+        position[vertexAt[i]] = i + 1;
+      }
+      sequences(new int[feedback.length + 2], 0,
+          new boolean[feedback.length]);
+      if (failed) {
+        return null;
+      }
+      return PathEstimate.exact(paths, paths == 0.0 ? 0.0 : lengths/paths)
+          .plusCost(0, touched);
+    }
+
+    /**
+     * Counts the paths through the sequence of feedback vertices in
+     * <code>bounds[1..size]</code> and every extension of it.
+     */
+    private void sequences(int[] bounds, int size, boolean[] used) {
+      bounds[0] = start;
+      bounds[size + 1] = end;
+      segments(Arrays.copyOf(bounds, size + 2));
+      for (int f = 0; f < feedback.length && !failed; ++f) {
+        if (!used[f]) {
+          used[f] = true;
+          bounds[size + 1] = feedback[f];
+          sequences(bounds, size + 1, used);
+          used[f] = false;
+        }
+      }
+    }
+
+    /**
+     * Counts the tuples of disjoint segments from each of
+     * <code>bounds</code> to the next. A tuple of token positions is a
+     * long with <code>bits</code> bits per token, each holding the
+     * position of the token's vertex or 0 once it has reached its bound.
+     */
+    private void segments(int[] bounds) {
+      int tokens = bounds.length - 1;
+      int bits = Integer.SIZE - Integer.numberOfLeadingZeros(vertexAt.length);
+      List<Map<Long, double[]>> buckets = new ArrayList<>(vertexAt.length);
+      Map<Long, double[]> bucket;
+      long mask = (1L << bits) - 1;
+      long key;
+      long next;
+      double[] value;
+      int token;
+      int u;
+      int w;
+      int states = 0;
+      if (failed) {
+        return;
+      }
+      if (bits * tokens > Long.SIZE - 1) {
+        failed = true;
+        return;
+      }
+      for (int i = 0; i < vertexAt.length; ++i) {
+        buckets.add(null);
+      }
+      place(bounds, 0, 0L, bits, buckets);
+
+      // Taking out the lowest token only ever raises the lowest position,
+      // so the buckets are complete by the time they are reached.
+      for (int m = 0; m < vertexAt.length && !failed; ++m) {
+        bucket = buckets.get(m);
+        if (bucket == null) {
+          continue;
+        }
+        buckets.set(m, null);
+        u = vertexAt[m];
+        for (Map.Entry<Long, double[]> entry : bucket.entrySet()) {
+          key = entry.getKey();
+          value = entry.getValue();
+          token = 0;
+          while (((key >>> (bits * token)) & mask) != m + 1) {
+            ++token;
+          }
+          touched += graph.outDegree(u);
+          for (int i = graph.edgeStart(u); i < graph.edgeEnd(u); ++i) {
+            w = graph.target(i);
+            if (w == bounds[token + 1]) {
+              next = key & ~(mask << (bits * token));
+            } else if (position[w] != 0
+                && !occupies(key, position[w], bits, tokens)) {
+              next = (key & ~(mask << (bits * token)))
+                  | ((long) position[w] << (bits * token));
+            } else {
+              continue;
+            }
+            if (add(next, value[0], value[1] + value[0], bits, tokens,
+                buckets) && ++states > maxStates) {
+              failed = true;
+              return;
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Places the tokens from <code>token</code> on at the first vertex
+     * of their segments, one edge away from their bounds.
+     */
+    private void place(int[] bounds, int token, long key, int bits,
+        List<Map<Long, double[]>> buckets) {
+      int tokens = bounds.length - 1;
+      int from;
+      int w;
+      if (token == tokens) {
+        add(key, 1, tokens, bits, tokens, buckets);
+        return;
+      }
+      from = bounds[token];
+      touched += graph.outDegree(from);
+      for (int i = graph.edgeStart(from); i < graph.edgeEnd(from); ++i) {
+        w = graph.target(i);
+        if (w == bounds[token + 1]) {
+          place(bounds, token + 1, key, bits, buckets);
+        } else if (position[w] != 0
+            && !occupies(key, position[w], bits, token)) {
+          place(bounds, token + 1,
+              key | ((long) position[w] << (bits * token)), bits, buckets);
+        }
+      }
+    }
+
+    /**
+     * Adds paths to the tuple <code>key</code>, or to the totals if every
+     * token has arrived.
+     *
+     * @return whether a new tuple was created.
+     */
+    private boolean add(long key, double count, double lengthSum, int bits,
+        int tokens, List<Map<Long, double[]>> buckets) {
+      long mask = (1L << bits) - 1;
+      long lowest = Long.MAX_VALUE;
+      long slot;
+      double[] value;
+      Map<Long, double[]> bucket;
+      for (int token = 0; token < tokens; ++token) {
+        slot = (key >>> (bits * token)) & mask;
+        if (slot != 0) {
+          lowest = Math.min(lowest, slot);
+        }
+      }
+      if (lowest == Long.MAX_VALUE) {
+        paths += count;
+        lengths += lengthSum;
+        return false;
+      }
+      bucket = buckets.get((int) lowest - 1);
+      if (bucket == null) {
+        bucket = new HashMap<>();
+        buckets.set((int) lowest - 1, bucket);
+      }
+      value = bucket.get(key);
+      if (value == null) {
+        bucket.put(key, new double[]{count, lengthSum});
+        return true;
+      }
+      value[0] += count;
+      value[1] += lengthSum;
+      return false;
+    }
+
+    /** Whether one of the first <code>tokens</code> tokens is at p. */
+    private boolean occupies(long key, int p, int bits, int tokens) {
+      long mask = (1L << bits) - 1;
+      for (int token = 0; token < tokens; ++token) {
+        if (((key >>> (bits * token)) & mask) == p) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,419 @@
+package com.uniquepaths.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Maintains the strongly connected components of a {@link Graph} while
+ * edges are inserted and deleted.
+ *
+ * The components are kept in a topological order of the condensed graph,
+ * as positions with gaps between them. Following Pearce and Kelly, an
+ * inserted edge that agrees with the order changes nothing. Otherwise
+ * only the components positioned between its two ends are searched:
+ * forwards from its head and backwards from its tail. If the forward
+ * search reaches the tail, the components found by both searches lie on a
+ * cycle and are merged. Either way the components found are reordered
+ * among their own positions, those reaching the tail first. Deleting an
+ * edge inside a component re-runs Tarjan's algorithm on that component
+ * alone and splits it if needed, its pieces taking positions from the
+ * gap after it. Every update reports the ids of the components it touched, so
+ * only those have to be re-estimated; components are materialised as
+ * {@link SCC} objects lazily and cached until they change.
+ *
+ * Component ids are stable handles: a component keeps its id until it is
+ * merged or split, at which point the old id is retired and the resulting
+ * components receive fresh ids.
+ */
+public class IncrementalStronglyConnectedComponents<T> {
+
+  private static final long GAP = 1L << 16;
+
+  private final Graph<T> graph;
+  private final Map<T, Set<T>> predecessors;
+  private final Map<T, Integer> componentOf;
+  private final Map<Integer, Set<T>> members;
+  private final Map<Integer, SCC<T>> sccCache;
+  private final Map<Integer, Long> position;
+  private final TreeMap<Long, Integer> byPosition;
+  private final Comparator<Integer> byOrder = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) {
+      return Long.compare(position.get(a), position.get(b));
+    }
+  };
+  private int nextId;
+
+  public IncrementalStronglyConnectedComponents(Graph<T> graph) {
+    CompactGraph<T> compact = CompactGraph.fromGraph(graph);
+    int[] component = StronglyConnectedComponents.getComponentIds(compact);
+    T value;
+    this.graph = graph;
+    this.predecessors = new HashMap<>();
+    this.componentOf = new HashMap<>();
+    this.members = new HashMap<>();
+    this.sccCache = new HashMap<>();
+    this.position = new HashMap<>();
+    this.byPosition = new TreeMap<>();
+    this.nextId = StronglyConnectedComponents.getComponentCount(component);
+    // Tarjan numbers the components in reverse topological order.
+    for (int c = 0; c < nextId; ++c) {
+      place(c, (nextId - 1 - c) * GAP);
+    }
+    for (int v = 0; v < component.length; ++v) {
+      value = compact.valueOf(v);
+      componentOf.put(value, component[v]);
+      membersOf(component[v]).add(value);
+      predecessorsOf(value);
+    }
+    for (Map.Entry<T, Node<T>> entry : graph.getNodes()) {
+      for (Map.Entry<Node<T>, Integer> edge : entry.getValue().getEdges()) {
+        predecessorsOf(edge.getKey().getValue()).add(entry.getKey());
+      }
+    }
+  }
+
+  public Graph<T> getGraph() {
+    return graph;
+  }
+
+  public int getComponentId(T value) {
+    return componentOf.get(value);
+  }
+
+  public Set<Integer> getComponentIds() {
+    return Collections.unmodifiableSet(members.keySet());
+  }
+
+  public boolean containsComponent(int id) {
+    return members.containsKey(id);
+  }
+
+  public int size() {
+    return members.size();
+  }
+
+  /**
+   * Inserts the edge from <code>s</code> to <code>e</code>, adding either
+   * vertex if it is new.
+   *
+   * @return the ids of the components that were created, modified or
+   *     retired by the insertion. Retired ids are no longer contained in
+   *     {@link #getComponentIds()}.
+   */
+  public Set<Integer> addEdge(T s, T e) {
+    Set<Integer> changed = new HashSet<>();
+    Set<Integer> forward;
+    Set<Integer> backward;
+    List<Integer> before = new ArrayList<>();
+    List<Integer> after = new ArrayList<>();
+    List<Long> slots = new ArrayList<>();
+    Set<T> union;
+    int sId;
+    int eId;
+    int merged = -1;
+
+    if (graph.edgeExists(s, e)) {
+      return changed;
+    }
+    addVertex(s, changed);
+    addVertex(e, changed);
+    graph.addEdge(s, e);
+    predecessorsOf(e).add(s);
+
+    sId = componentOf.get(s);
+    eId = componentOf.get(e);
+    changed.add(sId);
+    changed.add(eId);
+    if (sId == eId || position.get(sId) < position.get(eId)) {
+      invalidate(changed);
+      return changed;
+    }
+
+    // Only components between e and s in the order can lie on a path from
+    // e to s, or have to move for the new edge.
+    forward = search(eId, true, position.get(sId));
+    backward = search(sId, false, position.get(eId));
+    for (int id : forward) {
+      slots.add(position.get(id));
+    }
+    for (int id : backward) {
+      if (!forward.contains(id)) {
+        slots.add(position.get(id));
+      }
+    }
+    Collections.sort(slots);
+    for (long slot : slots) {
+      byPosition.remove(slot);
+    }
+
+    if (forward.contains(sId)) {
+      // The new edge closes a cycle through every component found by both
+      // searches.
+      merged = nextId++;
+      union = new HashSet<>();
+      for (int id : forward) {
+        if (backward.contains(id)) {
+          union.addAll(members.remove(id));
+          position.remove(id);
+          changed.add(id);
+        }
+      }
+      for (T value : union) {
+        componentOf.put(value, merged);
+      }
+      members.put(merged, union);
+      changed.add(merged);
+    }
+    // What reaches s takes the lowest of the freed positions and what e
+    // reaches the highest, each group keeping its own order, so that no
+    // edge from or to a component outside the searches is reversed. A
+    // merged component sits between the two groups.
+    for (int id : backward) {
+      if (!forward.contains(id)) {
+        before.add(id);
+      }
+    }
+    for (int id : forward) {
+      if (!backward.contains(id)) {
+        after.add(id);
+      }
+    }
+    Collections.sort(before, byOrder);
+    Collections.sort(after, byOrder);
+    for (int i = 0; i < before.size(); ++i) {
+      place(before.get(i), slots.get(i));
+    }
+    if (merged != -1) {
+      place(merged, slots.get(before.size()));
+    }
+    for (int i = 0; i < after.size(); ++i) {
+      place(after.get(i), slots.get(slots.size() - after.size() + i));
+    }
+    invalidate(changed);
+    return changed;
+  }
+
+  /**
+   * Deletes the edge from <code>s</code> to <code>e</code>.
+   *
+   * @return the ids of the components that were created, modified or
+   *     retired by the deletion. Retired ids are no longer contained in
+   *     {@link #getComponentIds()}.
+   */
+  public Set<Integer> removeEdge(T s, T e) {
+    Set<Integer> changed = new HashSet<>();
+    int sId;
+    int eId;
+
+    if (!graph.removeEdge(s, e)) {
+      return changed;
+    }
+    predecessorsOf(e).remove(s);
+    sId = componentOf.get(s);
+    eId = componentOf.get(e);
+    changed.add(sId);
+    changed.add(eId);
+    if (sId == eId) {
+      split(sId, changed);
+    }
+    invalidate(changed);
+    return changed;
+  }
+
+  /**
+   * Returns the component with the given id, including its internal edges
+   * and the vertices with edges entering or leaving it.
+   */
+  public SCC<T> getSCC(int id) {
+    SCC<T> scc = sccCache.get(id);
+    Set<T> component = members.get(id);
+    Node<T> node;
+    T adj;
+    if (scc != null || component == null) {
+      return scc;
+    }
+    scc = new SCC<>();
+    scc.setSccId(id);
+    for (T value : component) {
+      scc.addNode(graph.getNode(value));
+    }
+    for (T value : component) {
+      node = graph.getNode(value);
+      for (Map.Entry<Node<T>, Integer> edge : node.getEdges()) {
+        adj = edge.getKey().getValue();
+        if (component.contains(adj)) {
+          scc.addEdge(value, adj, edge.getValue());
+        } else {
+          scc.addOutNode(value);
+        }
+      }
+      for (T pred : predecessorsOf(value)) {
+        if (!component.contains(pred)) {
+          scc.addInNode(value);
+          break;
+        }
+      }
+    }
+    sccCache.put(id, scc);
+    return scc;
+  }
+
+  /**
+   * Re-runs Tarjan's algorithm on one component and splits it if its
+   * vertices no longer form a single component.
+   */
+  private void split(int id, Set<Integer> changed) {
+    Set<T> component = members.get(id);
+    List<Edge<T>> edges = new ArrayList<>();
+    CompactGraph<T> compact;
+    int[] labels;
+    int count;
+    int[] ids;
+    long first;
+    Long next;
+    long step;
+    T adj;
+
+    for (T value : component) {
+      for (Map.Entry<Node<T>, Integer> edge
+          : graph.getNode(value).getEdges()) {
+        adj = edge.getKey().getValue();
+        if (component.contains(adj)) {
+          edges.add(new Edge<T>(value, adj, edge.getValue()));
+        }
+      }
+    }
+    compact = CompactGraph.fromEdges(component, edges);
+    labels = StronglyConnectedComponents.getComponentIds(compact);
+    count = StronglyConnectedComponents.getComponentCount(labels);
+    if (count == 1) {
+      return;
+    }
+    members.remove(id);
+    first = position.get(id);
+    next = byPosition.higherKey(first);
+    if (next != null && next - first < count) {
+      renumber(Math.max(GAP, count));
+      first = position.get(id);
+      next = byPosition.higherKey(first);
+    }
+    position.remove(id);
+    byPosition.remove(first);
+    step = next == null ? GAP : (next - first) / count;
+    ids = new int[count];
+    // Tarjan numbers the pieces in reverse topological order as well.
+    for (int c = 0; c < count; ++c) {
+      ids[c] = nextId++;
+      members.put(ids[c], new HashSet<T>());
+      place(ids[c], first + (count - 1 - c) * step);
+      changed.add(ids[c]);
+    }
+    for (int v = 0; v < labels.length; ++v) {
+      componentOf.put(compact.valueOf(v), ids[labels[v]]);
+      members.get(ids[labels[v]]).add(compact.valueOf(v));
+    }
+  }
+
+  /**
+   * Breadth-first search over components from <code>start</code>, along
+   * out-edges to components positioned at most <code>bound</code> when
+   * <code>forward</code> is set, and along in-edges to components
+   * positioned at least <code>bound</code> otherwise.
+   *
+   * @return the ids of the components found, <code>start</code> included.
+   */
+  private Set<Integer> search(int start, boolean forward, long bound) {
+    Set<Integer> seen = new LinkedHashSet<>();
+    Deque<Integer> queue = new ArrayDeque<>();
+    List<T> next = new ArrayList<>();
+    int curr;
+    int adj;
+    seen.add(start);
+    queue.add(start);
+    while (!queue.isEmpty()) {
+      curr = queue.poll();
+      for (T value : members.get(curr)) {
+        next.clear();
+        if (forward) {
+          for (Map.Entry<Node<T>, Integer> edge
+              : graph.getNode(value).getEdges()) {
+            next.add(edge.getKey().getValue());
+          }
+        } else {
+          next.addAll(predecessorsOf(value));
+        }
+        for (T other : next) {
+          adj = componentOf.get(other);
+          if ((forward ? position.get(adj) <= bound
+              : position.get(adj) >= bound) && seen.add(adj)) {
+            queue.add(adj);
+          }
+        }
+      }
+    }
+    return seen;
+  }
+
+  private void place(int id, long at) {
+    position.put(id, at);
+    byPosition.put(at, id);
+  }
+
+  /**
+   * Spreads the components out again, <code>spacing</code> apart, once a
+   * split finds no room in the gap after a component.
+   */
+  private void renumber(long spacing) {
+    List<Integer> ordered = new ArrayList<>(byPosition.values());
+    byPosition.clear();
+    for (int i = 0; i < ordered.size(); ++i) {
+      place(ordered.get(i), i * spacing);
+    }
+  }
+
+  private void addVertex(T value, Set<Integer> changed) {
+    if (!componentOf.containsKey(value)) {
+      int id = nextId++;
+      place(id, byPosition.isEmpty() ? 0 : byPosition.lastKey() + GAP);
+      componentOf.put(value, id);
+      membersOf(id).add(value);
+      predecessorsOf(value);
+      changed.add(id);
+    }
+  }
+
+  private void invalidate(Set<Integer> changed) {
+    for (int id : changed) {
+      sccCache.remove(id);
+    }
+  }
+
+  private Set<T> membersOf(int id) {
+    Set<T> set = members.get(id);
+    if (set == null) {
+      set = new HashSet<>();
+      members.put(id, set);
+    }
+    return set;
+  }
+
+  private Set<T> predecessorsOf(T value) {
+    Set<T> set = predecessors.get(value);
+    if (set == null) {
+      set = new HashSet<>();
+      predecessors.put(value, set);
+    }
+    return set;
+  }
+}
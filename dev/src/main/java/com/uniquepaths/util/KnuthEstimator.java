@@ -0,0 +1,103 @@
+package com.uniquepaths.util;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Knuth's estimator of the size of a backtrack tree, applied to the tree
+ * of simple paths from the start vertex in which the end is a leaf.
+ *
+ * Each walk descends the tree uniformly: it moves to a random unvisited
+ * neighbour and multiplies its weight by the number of unvisited
+ * neighbours it chose from. A walk that reaches the end contributes its
+ * weight, which is an unbiased sample of the number of paths. Unlike the
+ * samplers of {@link PathApproximation} the walks are not pruned to
+ * vertices that can still reach the end, so each step is cheaper but more
+ * walks fail on graphs with dead regions.
+ */
+public class KnuthEstimator extends SamplingEstimator {
+
+  public KnuthEstimator() {
+    this(PathApproximation.DEFAULT_RELATIVE_ERROR,
+        PathApproximation.DEFAULT_CONFIDENCE, PathApproximation.MIN_SAMPLES,
+        PathApproximation.MAX_SAMPLES);
+  }
+
+  public KnuthEstimator(double relativeError, double confidence,
+      int minSamples, int maxSamples) {
+    super(relativeError, confidence, minSamples, maxSamples);
+  }
+
+  @Override
+  public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    PathEstimate[] estimates = new PathEstimate[ends.size()];
+    int s = graph.indexOf(start);
+    int e;
+    for (int i = 0; i < estimates.length; ++i) {
+      e = graph.indexOf(ends.get(i));
+      if (s == -1 || e == -1) {
+        estimates[i] = PathEstimate.exact(0.0, 0.0);
+        continue;
+      }
+      if (s == e) {
+        estimates[i] = PathEstimate.exact(1.0, 0.0);
+        continue;
+      }
+      estimates[i] = PathApproximation.toEstimate(
+          sample(batch(graph, s, e)), 0);
+    }
+    return estimates;
+  }
+
+  private static <T> PathApproximation.Batch batch(
+      final CompactGraph<T> graph, final int start, final int end) {
+    return new PathApproximation.Batch() {
+      @Override
+      public double[] run(int count, SplittableRandom random) {
+        double[] sums = new double[PathApproximation.MOMENTS];
+        int[] stamps = new int[graph.size()];
+        long touched = 0;
+        double weight;
+        int length;
+        int curr;
+        int next;
+        int candidates;
+        int adj;
+        for (int stamp = 1; stamp <= count; ++stamp) {
+          curr = start;
+          stamps[curr] = stamp;
+          weight = 1.0;
+          length = 0;
+          while (curr != end) {
+            // Reservoir choice among the unvisited neighbours.
+            next = -1;
+            candidates = 0;
+            touched += graph.outDegree(curr);
+            for (int i = graph.edgeStart(curr); i < graph.edgeEnd(curr);
+                ++i) {
+              adj = graph.target(i);
+              if (stamps[adj] != stamp && random.nextInt(++candidates) == 0) {
+                next = adj;
+              }
+            }
+            if (next == -1) {
+              break;
+            }
+            weight = weight * candidates;
+            stamps[next] = stamp;
+            curr = next;
+            ++length;
+          }
+          if (curr == end) {
+            PathApproximation.record(sums, 0, weight, length * weight);
+          } else {
+            PathApproximation.record(sums, 0, 0.0, 0.0);
+          }
+        }
+        sums[PathApproximation.COST] = touched;
+        return sums;
+      }
+    };
+  }
+}
@@ -0,0 +1,48 @@
+package com.uniquepaths.util;
+
+import java.util.List;
+
+/**
+ * The Kroese-Roberts sampler of {@link PathApproximation}, run once per end
+ * after a pilot phase shared by all ends.
+ */
+public class KroeseRobertsEstimator extends SamplingEstimator {
+
+  private final boolean dynamicPruning;
+
+  public KroeseRobertsEstimator() {
+    this(false);
+  }
+
+  /** Uses the default precision and walk counts. */
+  public KroeseRobertsEstimator(boolean dynamicPruning) {
+    this(PathApproximation.DEFAULT_RELATIVE_ERROR,
+        PathApproximation.DEFAULT_CONFIDENCE, PathApproximation.MIN_SAMPLES,
+        PathApproximation.MAX_SAMPLES, dynamicPruning);
+  }
+
+  public KroeseRobertsEstimator(double relativeError, double confidence,
+      int minSamples, int maxSamples) {
+    this(relativeError, confidence, minSamples, maxSamples, false);
+  }
+
+  /**
+   * @param dynamicPruning whether walks re-check before every step which
+   *     vertices can still reach an end, see
+   *     {@link PathApproximation#estimateEach(CompactGraph, Object, List,
+   *     long, double, double, int, int, boolean)}.
+   */
+  public KroeseRobertsEstimator(double relativeError, double confidence,
+      int minSamples, int maxSamples, boolean dynamicPruning) {
+    super(relativeError, confidence, minSamples, maxSamples);
+    this.dynamicPruning = dynamicPruning;
+  }
+
+  @Override
+  public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    long seed = nextSeed();
+    return PathApproximation.estimateEach(graph, start, ends, seed,
+        relativeError, confidence, minSamples, maxSamples, dynamicPruning);
+  }
+}
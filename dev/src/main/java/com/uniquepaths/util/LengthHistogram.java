@@ -0,0 +1,90 @@
+package com.uniquepaths.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * Number of paths of every length, as counted by the exact enumerations of
+ * {@link PathFinder}.
+ *
+ * A path is recorded by incrementing the bucket of its length, so the
+ * memory taken is bounded by the longest path, that is by the number of
+ * vertices, however many paths are counted. The totals are summed as
+ * {@link BigInteger}s and cannot overflow.
+ */
+public class LengthHistogram {
+
+  private long[] counts = new long[16];
+  private int maxLength = -1;
+
+  public void add(int length) {
+    add(length, 1);
+  }
+
+  /** Records <code>times</code> paths of the given length. */
+  public void add(int length, long times) {
+    if (length >= counts.length) {
+      counts = Arrays.copyOf(counts, Math.max(2 * counts.length,
+          length + 1));
+    }
+    counts[length] += times;
+    maxLength = Math.max(maxLength, length);
+  }
+
+  /** Adds the paths counted by <code>other</code> to this histogram. */
+  public void addAll(LengthHistogram other) {
+    if (other.maxLength >= counts.length) {
+      counts = Arrays.copyOf(counts, other.maxLength + 1);
+    }
+    for (int length = 0; length <= other.maxLength; ++length) {
+      counts[length] += other.counts[length];
+    }
+    maxLength = Math.max(maxLength, other.maxLength);
+  }
+
+  /** Number of paths of the given length. */
+  public long count(int length) {
+    return length < 0 || length > maxLength ? 0 : counts[length];
+  }
+
+  /** The length of the longest path, or -1 if there is none. */
+  public int maxLength() {
+    return maxLength;
+  }
+
+  public BigInteger totalCount() {
+    BigInteger total = BigInteger.ZERO;
+    for (int length = 0; length <= maxLength; ++length) {
+      total = total.add(BigInteger.valueOf(counts[length]));
+    }
+    return total;
+  }
+
+  public BigInteger totalLength() {
+    BigInteger total = BigInteger.ZERO;
+    for (int length = 1; length <= maxLength; ++length) {
+      total = total.add(BigInteger.valueOf(counts[length])
+          .multiply(BigInteger.valueOf(length)));
+    }
+    return total;
+  }
+
+  public double averageLength() {
+    BigInteger count = totalCount();
+    if (count.signum() == 0) {
+      return 0.0;
+    }
+    return new BigDecimal(totalLength()).divide(new BigDecimal(count),
+        MathContext.DECIMAL64).doubleValue();
+  }
+
+  /**
+   * @return an array containing the number of paths and their average
+   *     length, the result format of {@link PathFinder#uniquePaths}.
+   */
+  public double[] toArray() {
+    return new double[]{totalCount().doubleValue(), averageLength()};
+  }
+}
@@ -1,227 +1,893 @@
 package com.uniquepaths.util;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class PathApproximation {
 
-  private static final int N_BASE = 10000;
-  private static final int N_PRIME = 5000;
+  public static final double DEFAULT_RELATIVE_ERROR = 0.05;
+  public static final double DEFAULT_CONFIDENCE = 0.95;
+  public static final int MIN_SAMPLES = 1000;
+  public static final int MAX_SAMPLES = 10000;
+  private static final int WALKS_PER_TASK = 250;
+  // Layout of the running moments that close every batch result: number
+  // of walks, mean and sum of squared deviations of the walk weight w, of
+  // the weighted length y = w * length, their co-moment, and the number of
+  // edges the walks inspected.
+  static final int MOMENTS = 7;
+  static final int COST = 6;
   private static Random generator = new Random();
 
   public static <T> double[] lengthDistribution(Graph<T> graph,
       T start, T end) {
-    Map<Node<T>, Double> likelihoodMasterMap = new HashMap<>();
-    Map<Node<T>, Integer> counterMasterMap = new HashMap<>();
-    Map<Node<T>, Double> likelihoodMap;
-    Map<Node<T>, Integer> counterMap;
-    Double likelihood;
-    // Step 1
-    List<Double> pilotRun = pilotRun(graph, start, end);
-    resetGraph(graph);
-
-    double paths = 0;
-    double length = 0;
+    return lengthDistribution(graph.getCompactGraph(), start, end);
+  }
+
+  public static <T> double[] lengthDistribution(CompactGraph<T> graph,
+      T start, T end) {
+    return lengthDistribution(graph, start, end, generator.nextLong());
+  }
+
+  public static <T> double[] lengthDistribution(CompactGraph<T> graph,
+      T start, T end, long seed) {
+    return estimate(graph, start, end, seed, DEFAULT_RELATIVE_ERROR,
+        DEFAULT_CONFIDENCE, MIN_SAMPLES, MAX_SAMPLES).toArray();
+  }
+
+  /**
+   * Runs only the estimation phase, reusing a pilot run computed by
+   * {@link #pilotRuns(CompactGraph, Object, List)}.
+   */
+  public static <T> double[] lengthDistribution(CompactGraph<T> graph,
+      T start, T end, double[] pilotRun) {
+    return estimate(graph, start, end, pilotRun, generator.nextLong(),
+        DEFAULT_RELATIVE_ERROR, DEFAULT_CONFIDENCE, MIN_SAMPLES,
+        MAX_SAMPLES).toArray();
+  }
+
+  /**
+   * Runs the Kroese-Roberts estimator directly on a {@link CompactGraph}.
+   *
+   * Both the pilot and the estimation walks are split into fixed-size
+   * batches that run on the common fork-join pool. Each batch draws from
+   * its own {@link SplittableRandom}, split off in order from one seeded
+   * root, and keeps its own visited state, so the result only depends on
+   * <code>seed</code> and not on the number of threads.
+   *
+   * Each phase starts with <code>minSamples</code> walks and keeps doubling
+   * them until the confidence interval of both the path count and the
+   * average length is within <code>relativeError</code> of the estimate,
+   * or <code>maxSamples</code> walks have been made.
+   *
+   * @param seed the seed for all random choices made by the walks.
+   * @param relativeError the targeted half-width of the confidence
+   *     intervals relative to the estimates.
+   * @param confidence the confidence level of the intervals, such as 0.95.
+   * @param minSamples the number of walks each phase makes at least.
+   * @param maxSamples the number of walks each phase makes at most.
+   *
+   * @return the estimated number of paths from <code>start</code> to
+   *     <code>end</code> and their average length, with the standard errors
+   *     and the number of walks of the estimation phase, and the cost of
+   *     both phases.
+   * @throws IllegalArgumentException if <code>minSamples</code> is not
+   *     positive or exceeds <code>maxSamples</code>.
+   */
+  public static <T> PathEstimate estimate(CompactGraph<T> graph, T start,
+      T end, long seed, double relativeError, double confidence,
+      int minSamples, int maxSamples) {
+    SplittableRandom root = new SplittableRandom(seed);
+    double[] pilotRun = new double[graph.size()];
+    double[] pilotCost = new double[2];
+    checkSamples(minSamples, maxSamples);
+    pilotRuns(graph, start, Collections.singletonList(end),
+        root.nextLong(), relativeError, confidence, minSamples, maxSamples,
+        false, new double[][]{pilotRun}, pilotCost);
+    return estimate(graph, start, end, pilotRun, root.nextLong(),
+        relativeError, confidence, minSamples, maxSamples)
+        .plusCost((long) pilotCost[0], (long) pilotCost[1]);
+  }
+
+  /**
+   * Runs the estimation phase of the Kroese-Roberts estimator with a given
+   * pilot run; the parameters are those of
+   * {@link #estimate(CompactGraph, Object, Object, long, double, double,
+   * int, int)}.
+   */
+  public static <T> PathEstimate estimate(CompactGraph<T> graph, T start,
+      T end, double[] pilotRun, long seed, double relativeError,
+      double confidence, int minSamples, int maxSamples) {
+    return estimate(graph, start, end, pilotRun, seed, relativeError,
+        confidence, minSamples, maxSamples, false);
+  }
+
+  private static <T> PathEstimate estimate(CompactGraph<T> graph, T start,
+      T end, double[] pilotRun, long seed, double relativeError,
+      double confidence, int minSamples, int maxSamples,
+      boolean dynamicPruning) {
+    double z = normalQuantile(0.5 + confidence/2.0);
+    int s = graph.indexOf(start);
+    int e = graph.indexOf(end);
+    checkSamples(minSamples, maxSamples);
+    if (s == -1 || e == -1) {
+      return PathEstimate.exact(0.0, 0.0);
+    }
+    if (s == e) {
+      return PathEstimate.exact(1.0, 0.0);
+    }
+    // Step 2
+    double[] moments = sample(graph, s, new int[]{e}, pilotRun, false,
+        dynamicPruning, streams(new SplittableRandom(seed), maxSamples), z,
+        relativeError, minSamples, maxSamples);
+    return toEstimate(moments, 0);
+  }
+
+  /**
+   * Runs the Kroese-Roberts estimator from <code>start</code> to every
+   * vertex of <code>ends</code>, sharing a single pilot phase; the
+   * parameters are those of
+   * {@link #estimate(CompactGraph, Object, Object, long, double, double,
+   * int, int)}.
+   *
+   * @return one estimate per end, in the order of <code>ends</code>.
+   */
+  public static <T> PathEstimate[] estimateEach(CompactGraph<T> graph,
+      T start, List<T> ends, long seed, double relativeError,
+      double confidence, int minSamples, int maxSamples) {
+    return estimateEach(graph, start, ends, seed, relativeError, confidence,
+        minSamples, maxSamples, false);
+  }
+
+  /**
+   * As {@link #estimateEach(CompactGraph, Object, List, long, double,
+   * double, int, int)}, optionally with dynamic pruning.
+   *
+   * Walks only ever step to vertices from which an end can still be
+   * reached. Without dynamic pruning this is decided once per estimate,
+   * ignoring the vertices a walk has visited; with it, it is re-checked
+   * against the visited vertices before every step, which costs a
+   * backward search per step but means walks no longer get stuck.
+   */
+  public static <T> PathEstimate[] estimateEach(CompactGraph<T> graph,
+      T start, List<T> ends, long seed, double relativeError,
+      double confidence, int minSamples, int maxSamples,
+      boolean dynamicPruning) {
+    SplittableRandom root = new SplittableRandom(seed);
+    PathEstimate[] estimates = new PathEstimate[ends.size()];
+    double[][] pilotRuns = new double[ends.size()][graph.size()];
+    double[] pilotCost = new double[2];
+    checkSamples(minSamples, maxSamples);
+    pilotRuns(graph, start, ends, root.nextLong(), relativeError,
+        confidence, minSamples, maxSamples, dynamicPruning, pilotRuns,
+        pilotCost);
+    for (int i = 0; i < estimates.length; ++i) {
+      estimates[i] = estimate(graph, start, ends.get(i), pilotRuns[i],
+          root.nextLong(), relativeError, confidence, minSamples,
+          maxSamples, dynamicPruning);
+      if (estimates[i].samples > 0) {
+        estimates[i] = estimates[i].plusCost((long) pilotCost[0],
+            (long) pilotCost[1]);
+      }
+    }
+    return estimates;
+  }
+
+  public static <T> double[][] pilotRuns(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    return pilotRuns(graph, start, ends, generator.nextLong(),
+        DEFAULT_RELATIVE_ERROR, DEFAULT_CONFIDENCE, MIN_SAMPLES,
+        MAX_SAMPLES);
+  }
+
+  /**
+   * Step 1 of the estimator for every vertex of <code>ends</code> at once.
+   * Entry <code>i</code> of a pilot run is the probability that a path to
+   * the end finishes at step <code>i + 1</code>, given that the walk is
+   * adjacent to the end after <code>i</code> steps.
+   *
+   * A naive walk towards one end only depends on that end once it reaches
+   * it, so a single walk that runs until it has seen every end, or gets
+   * stuck, serves as a naive walk towards each of them. The pilot phase
+   * therefore costs the same for one end as for all out-nodes of an SCC.
+   * The walks stop once the naive estimates of every reachable end are
+   * precise enough, as in
+   * {@link #estimate(CompactGraph, Object, Object, long, double, double,
+   * int, int)}.
+   *
+   * @return one pilot run per end, in the order of <code>ends</code>.
+   */
+  public static <T> double[][] pilotRuns(CompactGraph<T> graph, T start,
+      List<T> ends, long seed, double relativeError, double confidence,
+      int minSamples, int maxSamples) {
+    double[][] pilotRuns = new double[ends.size()][graph.size()];
+    checkSamples(minSamples, maxSamples);
+    pilotRuns(graph, start, ends, seed, relativeError, confidence,
+        minSamples, maxSamples, false, pilotRuns, new double[2]);
+    return pilotRuns;
+  }
+
+  /**
+   * Fills <code>pilotRuns</code> and stores the number of walks and edges
+   * inspected in <code>cost</code>.
+   */
+  private static <T> void pilotRuns(CompactGraph<T> graph, T start,
+      List<T> ends, long seed, double relativeError, double confidence,
+      int minSamples, int maxSamples, boolean dynamicPruning,
+      double[][] pilotRuns, double[] cost) {
+    int n = graph.size();
+    double z = normalQuantile(0.5 + confidence/2.0);
+    int s = graph.indexOf(start);
+    int[] ids = indicesOf(graph, s, ends);
+    int[] targets = targets(ids);
+    int k = 0;
+    double[] sums;
+    if (targets.length == 0) {
+      return;
+    }
+    // Block k holds the numerators of target k followed by its
+    // denominators.
+    sums = sample(graph, s, targets, null, true, dynamicPruning,
+        streams(new SplittableRandom(seed), maxSamples), z, relativeError,
+        minSamples, maxSamples);
+    cost[0] = sums[2 * n * targets.length];
+    cost[1] = sums[2 * n * targets.length + COST];
+    for (int i = 0; i < ids.length; ++i) {
+      if (ids[i] == -1) {
+        continue;
+      }
+      for (int j = 0; j < n; j++) {
+        double denom = sums[2 * n * k + n + j];
+        pilotRuns[i][j] = denom == 0.0 ? 0.0 : sums[2 * n * k + j]/denom;
+      }
+      ++k;
+    }
+  }
+
+  public static <T> double[][] lengthDistributions(CompactGraph<T> graph,
+      T start, List<T> ends) {
+    PathEstimate[] estimates = estimateAll(graph, start, ends,
+        generator.nextLong(), DEFAULT_RELATIVE_ERROR, DEFAULT_CONFIDENCE,
+        MIN_SAMPLES, MAX_SAMPLES);
+    double[][] results = new double[estimates.length][];
+    for (int i = 0; i < estimates.length; ++i) {
+      results[i] = estimates[i].toArray();
+    }
+    return results;
+  }
+
+  /**
+   * Estimates the paths from <code>start</code> to every vertex of
+   * <code>ends</code> with a single set of walks.
+   *
+   * Each walk moves uniformly among the unvisited neighbours until it has
+   * seen every end or gets stuck. Whenever it reaches an end, the inverse
+   * likelihood of the prefix walked so far is an unbiased sample of the
+   * number of paths to that end, exactly as for a naive walk that stops
+   * there. The walks stop once the estimates of every reachable end are
+   * precise enough; the parameters are those of
+   * {@link #estimate(CompactGraph, Object, Object, long, double, double,
+   * int, int)}.
+   *
+   * @return one estimate per end, in the order of <code>ends</code>.
+   */
+  public static <T> PathEstimate[] estimateAll(CompactGraph<T> graph,
+      T start, List<T> ends, long seed, double relativeError,
+      double confidence, int minSamples, int maxSamples) {
+    return estimateAll(graph, start, ends, seed, relativeError, confidence,
+        minSamples, maxSamples, false);
+  }
+
+  /**
+   * As {@link #estimateAll(CompactGraph, Object, List, long, double,
+   * double, int, int)}, with dynamic pruning as in
+   * {@link #estimateEach(CompactGraph, Object, List, long, double, double,
+   * int, int, boolean)}.
+   */
+  public static <T> PathEstimate[] estimateAll(CompactGraph<T> graph,
+      T start, List<T> ends, long seed, double relativeError,
+      double confidence, int minSamples, int maxSamples,
+      boolean dynamicPruning) {
+    PathEstimate[] estimates = new PathEstimate[ends.size()];
+    double z = normalQuantile(0.5 + confidence/2.0);
+    int s = graph.indexOf(start);
+    int[] ids = indicesOf(graph, s, ends);
+    int[] targets = targets(ids);
+    int k = 0;
+    double[] sums = null;
+    checkSamples(minSamples, maxSamples);
+    if (targets.length > 0) {
+      sums = sample(graph, s, targets, null, false, dynamicPruning,
+          streams(new SplittableRandom(seed), maxSamples), z,
+          relativeError, minSamples, maxSamples);
+    }
+    for (int i = 0; i < ids.length; ++i) {
+      if (ids[i] != -1) {
+        // The walks are shared, and their cost is kept in the first block.
+        estimates[i] = toEstimate(sums, MOMENTS * k++)
+            .plusCost(0, k == 1 ? 0 : (long) sums[COST]);
+      } else if (s != -1 && s == graph.indexOf(ends.get(i))) {
+        estimates[i] = PathEstimate.exact(1.0, 0.0);
+      } else {
+        estimates[i] = PathEstimate.exact(0.0, 0.0);
+      }
+    }
+    return estimates;
+  }
+
+  /**
+   * Ids of <code>ends</code>, with -1 for the ends that are missing or
+   * equal to <code>start</code> and therefore need no walks.
+   */
+  private static <T> int[] indicesOf(CompactGraph<T> graph, int start,
+      List<T> ends) {
+    int[] ids = new int[ends.size()];
+    for (int i = 0; i < ids.length; ++i) {
+      ids[i] = start == -1 ? -1 : graph.indexOf(ends.get(i));
+      if (ids[i] == start) {
+        ids[i] = -1;
+      }
+    }
+    return ids;
+  }
+
+  private static int[] targets(int[] ids) {
+    int[] targets = new int[ids.length];
     int count = 0;
-    for (int i = 0; i < N_BASE; i++) {
-      likelihoodMap = new HashMap<>();
-      counterMap = new HashMap<>();
-      Node<T> sNode = graph.getNode(start);
-      Node<T> eNode = graph.getNode(end);
-      int currLen = traversal(sNode, eNode, likelihoodMap, counterMap,
-          pilotRun, 1.0, 1);
-      if (eNode.visited()) {
-        likelihood = likelihoodMap.get(eNode);
-        paths += likelihoodMap.containsKey(eNode) ? 1.0/likelihood : 0.0;
-        length += (double) currLen;
-        ++count;
-      }
-    }
-    length = count == 0 ? 0.0 : length/(double) count;
-    return new double[]{Math.ceil(paths/(double) N_BASE), length};
-  }
-
-  private static <T> List<Double> pilotRun(Graph<T> graph, T start, T end) {
-    Map<Node<T>, Double> likelihoodMap;
-    Map<Node<T>, Integer> counterMap;
-
-    List<Double> pilotList = new ArrayList<>(
-        Collections.nCopies(graph.size(), 0.0));
-    List<Double> numer = new ArrayList<>(
-        Collections.nCopies(graph.size(), 0.0));
-    List<Double> denom = new ArrayList<>(
-        Collections.nCopies(graph.size(), 0.0));
-
-    for (int i = 0; i < N_PRIME; i++) {
-      likelihoodMap = new HashMap<>();
-      counterMap = new HashMap<>();
-      List<Node<T>> path = naivePathGeneration(graph, likelihoodMap,
-          counterMap, start, end);
-      Node<T> eNode = graph.getNode(end);
-      int index = counterMap.containsKey(eNode) ? counterMap.get(eNode) : 0;
-      index = index - 1;
-      double newValue;
-
-      if (path.get(path.size() - 1) == eNode) {
-        newValue = numer.get(index) + (1.0/likelihoodMap.get(eNode));
-        numer.set(index, newValue);
-
-        for (int j = 0; j < path.size(); j++) {
-          Node<T> node = path.get(j);
-          newValue = denom.get(j) + (1.0/likelihoodMap.get(node));
-          denom.set(j, newValue);
-          node.setVisited(false);
-        }
+    for (int id : ids) {
+      if (id != -1) {
+        targets[count++] = id;
       }
     }
+    return Arrays.copyOf(targets, count);
+  }
 
-    for (int i = 0; i < pilotList.size(); i++) {
-      double averaged = denom.get(i) == 0.0 ? 0.0 : numer.get(i)/denom.get(i);
-      pilotList.set(i, averaged);
+  /**
+   * Runs the Kroese-Roberts or naive walks described by
+   * {@link SampleTask}.
+   *
+   * Walks only step to vertices that can reach one of the ends. Every path
+   * to an end keeps a positive probability and the likelihood is divided
+   * by the number of such vertices only, so the estimates stay unbiased
+   * while walks into dead regions are no longer wasted.
+   */
+  private static <T> double[] sample(final CompactGraph<T> graph,
+      final int start, final int[] ends, final double[] pilotRun,
+      final boolean pilotSums, final boolean dynamicPruning,
+      SplittableRandom[] streams, double z, double relativeError,
+      int minSamples, int maxSamples) {
+    final boolean[] coReachable = graph.coReachable(ends);
+    Batch batch = new Batch() {
+      @Override
+      public double[] run(int count, SplittableRandom random) {
+        Walker<T> walker = new Walker<>(graph, start, ends, coReachable,
+            dynamicPruning, random);
+        return pilotRun == null ? walker.pilot(count, pilotSums)
+            : walker.estimate(count, pilotRun);
+      }
+    };
+    return sample(batch, pilotRun == null ? ends.length : 1, streams,
+        maxSamples, z, relativeError, minSamples);
+  }
+
+  /**
+   * Runs rounds of batches, doubling the number of walks every round, until
+   * the running moments of every block of the result are precise enough
+   * or <code>walks</code> walks have been made.
+   *
+   * @param blocks the number of blocks of running moments that close the
+   *     result of <code>batch</code>.
+   * @param streams one random stream per batch, from {@link #streams}.
+   */
+  static double[] sample(Batch batch, int blocks, SplittableRandom[] streams,
+      int walks, double z, double relativeError, int minSamples) {
+    double[] sums = null;
+    int done = 0;
+    int next = Math.max(1, Math.min(tasks(minSamples), streams.length));
+    boolean precise;
+    while (true) {
+      double[] round = ForkJoinPool.commonPool().invoke(
+          new SampleTask(batch, blocks, streams, walks, done, next));
+      sums = sums == null ? round : merge(sums, round, blocks);
+      done = next;
+      precise = true;
+      for (int k = 0; k < blocks && precise; ++k) {
+        precise = isPrecise(sums, sums.length - (blocks - k) * MOMENTS, z,
+            relativeError);
+      }
+      if (done == streams.length || precise) {
+        return sums;
+      }
+      next = Math.min(2 * done, streams.length);
     }
-    return pilotList;
   }
 
-  /** Implementation of algorithm 1 (Naive Path Generation). */
-  public static <T> List<Node<T>> naivePathGeneration(Graph<T> graph,
-      Map<Node<T>, Double> likelihoodMap, Map<Node<T>, Integer> counterMap,
-      T start, T end) {
-    Node<T> sNode = graph.getNode(start);
-    Node<T> eNode = graph.getNode(end);
-    return naivePathGen(sNode, eNode, likelihoodMap, counterMap, 1.0, 1);
+  private static boolean isPrecise(double[] sums, int base, double z,
+      double relativeError) {
+    PathEstimate estimate = toEstimate(sums, base);
+    return estimate.samples > 1 && estimate.count > 0.0
+        && z * estimate.countError <= relativeError * estimate.count
+        && z * estimate.lengthError <= relativeError * estimate.avgLength;
   }
 
-  private static <T> List<Node<T>> naivePathGen(Node<T> start, Node<T> end,
-      Map<Node<T>, Double> likelihoodMap, Map<Node<T>, Integer> counterMap,
-      double likelihood, int counter) {
-    List<Node<T>> path = new ArrayList<>();
-    Node<T> curr = start;
+  static PathEstimate toEstimate(double[] sums, int base) {
+    double n = sums[base];
+    double meanW = sums[base + 1];
+    double meanY = sums[base + 3];
+    double ratio;
+    double varW;
+    double varY;
+    double cov;
+    double lengthVar;
+    long cost = (long) sums[base + COST];
+    if (n < 2 || meanW == 0.0) {
+      return new PathEstimate(meanW, 0.0, 0.0, 0.0, (long) n,
+          (long) n, cost);
+    }
+    varW = sums[base + 2]/(n - 1);
+    varY = sums[base + 4]/(n - 1);
+    cov = sums[base + 5]/(n - 1);
+    // The average length is the ratio of two means; its variance follows
+    // from the delta method.
+    ratio = meanY/meanW;
+    lengthVar = (varY - 2 * ratio * cov + ratio * ratio * varW)
+        /(meanW * meanW * n);
+    return new PathEstimate(meanW, ratio, Math.sqrt(varW/n),
+        Math.sqrt(Math.max(0.0, lengthVar)), (long) n, (long) n, cost);
+  }
 
-    // Step 1
-    likelihoodMap.put(curr, likelihood);
-    counterMap.put(curr, counter);
+  /**
+   * Combines two batch results: the leading sums and the costs are added
+   * and the trailing blocks of running moments are merged pairwise (Chan
+   * et al.).
+   */
+  static double[] merge(double[] left, double[] right,
+      int blocks) {
+    double[] sums = new double[left.length];
+    int base = left.length - blocks * MOMENTS;
+    for (int i = 0; i < base; ++i) {
+      sums[i] = left[i] + right[i];
+    }
+    for (; base < left.length; base += MOMENTS) {
+      mergeMoments(left, right, sums, base);
+    }
+    return sums;
+  }
 
-    // Step 2
-    curr.setVisited(true);
+  private static void mergeMoments(double[] left, double[] right,
+      double[] sums, int base) {
+    double na = left[base];
+    double nb = right[base];
+    double n = na + nb;
+    double dw;
+    double dy;
+    double f;
+    if (na == 0 || nb == 0) {
+      System.arraycopy(na == 0 ? right : left, base, sums, base, MOMENTS);
+      sums[base + COST] = left[base + COST] + right[base + COST];
+      return;
+    }
+    dw = right[base + 1] - left[base + 1];
+    dy = right[base + 3] - left[base + 3];
+    f = na * nb/n;
+    sums[base] = n;
+    sums[base + 1] = left[base + 1] + dw * nb/n;
+    sums[base + 2] = left[base + 2] + right[base + 2] + dw * dw * f;
+    sums[base + 3] = left[base + 3] + dy * nb/n;
+    sums[base + 4] = left[base + 4] + right[base + 4] + dy * dy * f;
+    sums[base + 5] = left[base + 5] + right[base + 5] + dw * dy * f;
+    sums[base + COST] = left[base + COST] + right[base + COST];
+  }
 
-    boolean complete = false;
-    while (!complete) {
-      path.add(curr);
+  /** Welford update of the running moments at <code>base</code>. */
+  static void record(double[] sums, int base, double w, double y) {
+    double n = ++sums[base];
+    double dw = w - sums[base + 1];
+    double dy = y - sums[base + 3];
+    sums[base + 1] += dw/n;
+    sums[base + 3] += dy/n;
+    sums[base + 2] += dw * (w - sums[base + 1]);
+    sums[base + 4] += dy * (y - sums[base + 3]);
+    sums[base + 5] += dw * (y - sums[base + 3]);
+  }
 
-      // Step 3
-      List<Node<T>> list = getUnvisited(curr);
-      if (list.isEmpty()) {
-        complete = true;
-        continue;
+  /**
+   * Quantile of the standard normal distribution, using the rational
+   * approximation 26.2.23 of Abramowitz and Stegun.
+   */
+  static double normalQuantile(double p) {
+    double q = p < 0.5 ? p : 1.0 - p;
+    double t = Math.sqrt(-2.0 * Math.log(q));
+    double x = t - (2.515517 + 0.802853 * t + 0.010328 * t * t)
+        /(1.0 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+    return p < 0.5 ? -x : x;
+  }
+
+  private static int tasks(int walks) {
+    return (walks + WALKS_PER_TASK - 1)/WALKS_PER_TASK;
+  }
+
+  /**
+   * Checks the bounds on the number of walks taken by the estimators.
+   *
+   * @throws IllegalArgumentException if <code>minSamples</code> is not
+   *     positive or exceeds <code>maxSamples</code>.
+   */
+  static void checkSamples(int minSamples, int maxSamples) {
+    if (minSamples < 1 || minSamples > maxSamples) {
+      throw new IllegalArgumentException("Expected 1 <= minSamples <= "
+          + "maxSamples: " + minSamples + ", " + maxSamples);
+    }
+  }
+
+  static SplittableRandom[] streams(SplittableRandom root,
+      int walks) {
+    SplittableRandom[] streams = new SplittableRandom[tasks(walks)];
+    for (int i = 0; i < streams.length; ++i) {
+      streams[i] = root.split();
+    }
+    return streams;
+  }
+
+  /**
+   * One batch of walks. The result ends with blocks of running moments, as
+   * kept by {@link #record}; any entries before them are sums that are
+   * added when batches are merged.
+   */
+  interface Batch {
+    double[] run(int count, SplittableRandom random);
+  }
+
+  /**
+   * Runs the batches <code>[from, to)</code>, halving the range until a
+   * single batch is left. Partial results are merged in batch order so
+   * that the floating point result is reproducible.
+   *
+   * For the walks of this class, without a pilot run a batch performs
+   * naive walks towards all ends and returns the running moments of the
+   * walk weights for each end, preceded by the pilot numerators and
+   * denominators if requested. Otherwise it performs Kroese-Roberts walks
+   * towards the single end and returns the running moments alone.
+   */
+  private static final class SampleTask extends RecursiveTask<double[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Batch batch;
+    private final int blocks;
+    private final SplittableRandom[] streams;
+    private final int walks;
+    private final int from;
+    private final int to;
+
+    SampleTask(Batch batch, int blocks, SplittableRandom[] streams,
+        int walks, int from, int to) {
+      this.batch = batch;
+      this.blocks = blocks;
+      this.streams = streams;
+      this.walks = walks;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected double[] compute() {
+      if (to - from > 1) {
+        int mid = (from + to) >>> 1;
+        SampleTask left = new SampleTask(batch, blocks, streams, walks,
+            from, mid);
+        SampleTask right = new SampleTask(batch, blocks, streams, walks,
+            mid, to);
+        left.fork();
+        double[] rightSums = right.compute();
+        return merge(left.join(), rightSums, blocks);
       }
 
-      // Step 4
-      int index = (int) ((double) list.size() * Math.random());
-      Node<T> next = list.get(index);
+      int count = Math.min(WALKS_PER_TASK, walks - from * WALKS_PER_TASK);
+      return batch.run(count, streams[from]);
+    }
+  }
+
+  /**
+   * Scratch arrays reused by every walk run on the same thread. A vertex is
+   * visited in the current walk when its stamp equals the walk's stamp, so
+   * starting a new walk only bumps the stamp. Marks work the same way for
+   * the vertices found by the dynamic reachability check.
+   */
+  private static final class Buffers {
 
-      // Step 5
-      likelihood = likelihood/(double) list.size();
-      ++counter;
-      likelihoodMap.put(next, likelihood);
-      counterMap.put(next, counter);
-      next.setVisited(true);
-      curr = next;
+    private int[] stamps = new int[0];
+    private int[] path = new int[0];
+    private int[] marks = new int[0];
+    private int[] queue = new int[0];
+    private int stamp;
+    private int mark;
+
+    void ensure(int n) {
+      if (stamps.length < n) {
+        stamps = new int[n];
+        path = new int[n];
+        marks = new int[n];
+        queue = new int[n];
+        stamp = 0;
+        mark = 0;
+      }
+    }
+
+    int nextMark() {
+      if (++mark == Integer.MAX_VALUE) {
+        Arrays.fill(marks, 0);
+        mark = 1;
+      }
+      return mark;
+    }
 
-      // Step 6
-      if (curr == end) {
-        path.add(curr);
-        complete = true;
+    int nextStamp() {
+      if (++stamp == Integer.MAX_VALUE) {
+        Arrays.fill(stamps, 0);
+        stamp = 1;
       }
+      return stamp;
     }
-    return path;
   }
 
-  private static <T> int traversal(Node<T> start, Node<T> end,
-      Map<Node<T>, Double> likelihoodMap, Map<Node<T>, Integer> counterMap,
-      List<Double> pilotRun, double likelihood, int counter) {
-    // Step 2
-    Node<T> curr = start;
-    Node<T> next;
-    List<Node<T>> unvisited;
-    likelihoodMap.put(curr, likelihood);
-    counterMap.put(curr, counter);
-    curr.setVisited(true);
-
-    boolean completed = false;
-    while (!completed) {
-      // Step 3
-      if (curr.hasEdge(end)) {
-        if (curr.getEdges().size() == 1) {
-          end.setVisited(true);
-          likelihoodMap.put(end, likelihood);
-          completed = true;
-          continue;
-        } else {
-          double nProbability = pilotRun.get(counter - 1);
-          double guessProbability = Math.random();
-          if (guessProbability < nProbability) {
-            likelihood = likelihood * nProbability;
-            likelihoodMap.put(end, likelihood);
-            end.setVisited(true);
-            completed = true;
-                  continue;
-          } else {
-            likelihood = likelihood * (1.0 - nProbability);
+  private static final ThreadLocal<Buffers> BUFFERS =
+      new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+          return new Buffers();
+        }
+      };
+
+  /**
+   * Runs the walks of a single batch. The walk itself does not allocate:
+   * the visited stamps and the path come from the thread's
+   * {@link Buffers}, the likelihood and step counter are scalars, and the
+   * next vertex is chosen by reservoir sampling over the adjacency array.
+   */
+  private static final class Walker<T> {
+
+    private final CompactGraph<T> graph;
+    private final int start;
+    private final int[] ends;
+    private final int end;
+    private final boolean[] coReachable;
+    private final boolean dynamic;
+    private final SplittableRandom random;
+    private final Buffers buffers;
+    private final int[] stamps;
+    private final int[] path;
+    private final int[] marks;
+    private int stamp;
+    private int mark;
+    private double likelihood;
+    private long touched;
+    // Set by choose(): the number of candidates and whether curr has an
+    // edge to end.
+    private int candidates;
+    private boolean adjacentToEnd;
+
+    Walker(CompactGraph<T> graph, int start, int[] ends,
+        boolean[] coReachable, boolean dynamic, SplittableRandom random) {
+      this.graph = graph;
+      this.start = start;
+      this.ends = ends;
+      this.end = ends[0];
+      this.coReachable = coReachable;
+      this.dynamic = dynamic;
+      this.random = random;
+      this.buffers = BUFFERS.get();
+      buffers.ensure(graph.size());
+      this.stamps = buffers.stamps;
+      this.path = buffers.path;
+      this.marks = buffers.marks;
+    }
+
+    /**
+     * Runs naive walks towards all ends, adding the pilot sums of each end
+     * in front of its running moments if <code>pilotSums</code> is set.
+     */
+    double[] pilot(int count, boolean pilotSums) {
+      int n = graph.size();
+      int k = ends.length;
+      int base = pilotSums ? 2 * n * k : 0;
+      double[] sums = new double[base + k * MOMENTS];
+      int[] targetOf = new int[n];
+      int[] reachedIn = new int[k];
+      for (int i = 0; i < n; ++i) {
+        targetOf[i] = -1;
+      }
+      for (int t = 0; t < k; ++t) {
+        targetOf[ends[t]] = t;
+      }
+      for (int i = 0; i < count; i++) {
+        naivePathGen(sums, base, targetOf, reachedIn);
+        for (int t = 0; t < k; ++t) {
+          if (reachedIn[t] != stamp) {
+            record(sums, base + t * MOMENTS, 0.0, 0.0);
           }
         }
       }
+      sums[base + COST] = touched;
+      return sums;
+    }
 
-      // Step 5
-      unvisited = getUnvisited(curr, end);
-      if (unvisited.isEmpty()) {
-        completed = true;
-        continue;
+    double[] estimate(int count, double[] pilotRun) {
+      double[] sums = new double[MOMENTS];
+      int length;
+      for (int i = 0; i < count; i++) {
+        length = traversal(pilotRun);
+        if (length > 0) {
+          record(sums, 0, 1.0/likelihood, length/likelihood);
+        } else {
+          record(sums, 0, 0.0, 0.0);
+        }
       }
+      sums[COST] = touched;
+      return sums;
+    }
 
-      // Step 6
-      int index = (int) ((double) unvisited.size() * Math.random());
-      next = unvisited.get(index);
+    /**
+     * Naive path generation: moves uniformly among the unvisited
+     * neighbours until every end has been reached or the walk gets stuck.
+     * Whenever an end is reached the prefix walked so far is added to that
+     * end's moments, which start at <code>base</code>, and to its pilot
+     * sums if there are any; <code>reachedIn</code> records the stamp of
+     * the walk in which each end was reached.
+     */
+    private void naivePathGen(double[] sums, int base, int[] targetOf,
+        int[] reachedIn) {
+      int n = graph.size();
+      int curr = start;
+      int length = 0;
+      int reached = 0;
+      int t;
+      double weight;
 
-      // Step 7
-      ++counter;
-      likelihood = likelihood / (double) unvisited.size();
-      likelihoodMap.put(next, likelihood);
-      counterMap.put(next, counter);
-      next.setVisited(true);
-      curr = next;
+      likelihood = 1.0;
+      stamp = buffers.nextStamp();
+      stamps[curr] = stamp;
+      path[0] = curr;
+      while (reached < ends.length) {
+        markLive();
+        curr = choose(curr, -1);
+        if (curr == -1) {
+          return;
+        }
+        likelihood = likelihood/(double) candidates;
+        stamps[curr] = stamp;
+        path[++length] = curr;
+        t = targetOf[curr];
+        if (t != -1) {
+          weight = 1.0/likelihood;
+          if (base > 0) {
+            sums[2 * n * t + length - 1] += weight;
+            for (int j = 0; j < length; j++) {
+              if (graph.hasEdge(path[j], curr)) {
+                sums[2 * n * t + n + j] += weight;
+              }
+            }
+          }
+          record(sums, base + t * MOMENTS, weight, length * weight);
+          reachedIn[t] = stamp;
+          ++reached;
+        }
+      }
     }
-    return counter;
-  }
 
-  private static <T> List<Node<T>> getUnvisited(Node<T> curr) {
-    // Processing of unvisited nodes.
-    List<Node<T>> validAdj = new ArrayList<>();
-    Node<T> edgeNode;
-    for (Map.Entry<Node<T>, Integer> edge : curr.getEdges()) {
-      edgeNode = edge.getKey();
-      if (!edgeNode.visited()) {
-        validAdj.add(edgeNode);
+    /**
+     * Kroese-Roberts path generation. Whenever the walk is adjacent to
+     * <code>end</code> it jumps there with the probability learnt in the
+     * pilot run, otherwise it continues uniformly among the other unvisited
+     * neighbours.
+     *
+     * @return the number of edges in the walk if it reached
+     *     <code>end</code>, or -1 if it got stuck.
+     */
+    private int traversal(double[] pilotRun) {
+      int curr = start;
+      int next;
+      int length = 0;
+      double nProbability;
+
+      likelihood = 1.0;
+      stamp = buffers.nextStamp();
+      stamps[curr] = stamp;
+      while (true) {
+        markLive();
+        next = choose(curr, end);
+        if (adjacentToEnd) {
+          nProbability = pilotRun[length];
+          if (nProbability <= 0.0 || nProbability >= 1.0) {
+            nProbability = 1.0/(candidates + 1);
+          }
+          if (candidates == 0) {
+            nProbability = 1.0;
+          }
+          if (random.nextDouble() < nProbability) {
+            likelihood = likelihood * nProbability;
+            return length + 1;
+          }
+          likelihood = likelihood * (1.0 - nProbability);
+        }
+        if (next == -1) {
+          return -1;
+        }
+        curr = next;
+        likelihood = likelihood/(double) candidates;
+        stamps[curr] = stamp;
+        ++length;
+      }
+    }
+
+    /**
+     * With dynamic pruning, marks the vertices that can still reach an
+     * unvisited end without passing through a visited vertex.
+     */
+    private void markLive() {
+      int[] queue = buffers.queue;
+      int head = 0;
+      int tail = 0;
+      int curr;
+      int pred;
+      if (!dynamic) {
+        return;
+      }
+      mark = buffers.nextMark();
+      for (int t : ends) {
+        if (stamps[t] != stamp) {
+          marks[t] = mark;
+          queue[tail++] = t;
+        }
+      }
+      while (head < tail) {
+        curr = queue[head++];
+        for (int i = graph.inEdgeStart(curr); i < graph.inEdgeEnd(curr);
+            ++i) {
+          pred = graph.source(i);
+          ++touched;
+          if (marks[pred] != mark && stamps[pred] != stamp) {
+            marks[pred] = mark;
+            queue[tail++] = pred;
+          }
+        }
       }
     }
-    return validAdj;
-  }
 
-  private static <T> List<Node<T>> getUnvisited(Node<T> curr, Node<T> end) {
-    List<Node<T>> validAdj = new ArrayList<>();
-    Node<T> edgeNode;
-    for (Map.Entry<Node<T>, Integer> edge : curr.getEdges()) {
-      edgeNode = edge.getKey();
-      if (!edgeNode.visited()) {
-        validAdj.add(edgeNode);
+    private boolean isLive(int v) {
+      return dynamic ? marks[v] == mark : coReachable[v];
+    }
+
+    /**
+     * Picks a live unvisited neighbour of <code>curr</code> other than
+     * <code>skip</code> uniformly at random in a single pass, keeping the
+     * i-th candidate with probability 1/i.
+     *
+     * @return the chosen neighbour, or -1 if there is none.
+     */
+    private int choose(int curr, int skip) {
+      int chosen = -1;
+      int adj;
+      candidates = 0;
+      adjacentToEnd = false;
+      touched += graph.outDegree(curr);
+      for (int i = graph.edgeStart(curr); i < graph.edgeEnd(curr); ++i) {
+        adj = graph.target(i);
+        if (adj == end) {
+          adjacentToEnd = true;
+        }
+        if (stamps[adj] != stamp && adj != skip && isLive(adj)
+            && random.nextInt(++candidates) == 0) {
+          chosen = adj;
+        }
       }
+      return chosen;
     }
-    return validAdj;
   }
 
   public static <T> void resetGraph(Graph<T> graph) {
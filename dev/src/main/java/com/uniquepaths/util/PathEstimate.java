@@ -0,0 +1,72 @@
+package com.uniquepaths.util;
+
+/**
+ * Result of a path estimator: the estimated number of simple paths between
+ * two vertices, their average length, the standard errors of both
+ * estimates and the number of samples the estimate is based on.
+ *
+ * The cost of the estimate is reported as the number of walks made and
+ * the number of edges they inspected, including preparatory phases such as
+ * pilot runs. Work shared by several estimates of one call is reported in
+ * full by each of them.
+ */
+public class PathEstimate {
+
+  public final double count;
+  public final double avgLength;
+  public final double countError;
+  public final double lengthError;
+  public final long samples;
+  public final long walks;
+  public final long edgesTouched;
+
+  public PathEstimate(double count, double avgLength, double countError,
+      double lengthError, long samples, long walks, long edgesTouched) {
+    this.count = count;
+    this.avgLength = avgLength;
+    this.countError = countError;
+    this.lengthError = lengthError;
+    this.samples = samples;
+    this.walks = walks;
+    this.edgesTouched = edgesTouched;
+  }
+
+  /** An estimate without any uncertainty or cost. */
+  public static PathEstimate exact(double count, double avgLength) {
+    return new PathEstimate(count, avgLength, 0.0, 0.0, 0, 0, 0);
+  }
+
+  /** This estimate with the cost of some further work added. */
+  public PathEstimate plusCost(long walks, long edgesTouched) {
+    return new PathEstimate(count, avgLength, countError, lengthError,
+        samples, this.walks + walks, this.edgesTouched + edgesTouched);
+  }
+
+  /**
+   * The estimate in the <code>{count, avgLength}</code> form returned by
+   * {@link PathApproximation#lengthDistribution}.
+   */
+  public double[] toArray() {
+    return new double[]{count, avgLength};
+  }
+
+  public String toString() {
+    StringBuilder strBldr = new StringBuilder();
+    strBldr.append("{count : ");
+    strBldr.append(count);
+    strBldr.append(" +- ");
+    strBldr.append(countError);
+    strBldr.append(", avgLength : ");
+    strBldr.append(avgLength);
+    strBldr.append(" +- ");
+    strBldr.append(lengthError);
+    strBldr.append(", samples : ");
+    strBldr.append(samples);
+    strBldr.append(", walks : ");
+    strBldr.append(walks);
+    strBldr.append(", edgesTouched : ");
+    strBldr.append(edgesTouched);
+    strBldr.append("}");
+    return strBldr.toString();
+  }
+}
@@ -0,0 +1,136 @@
+package com.uniquepaths.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registry of the {@link PathEstimator} engines, looked up by name.
+ *
+ * The engine is chosen through the <code>uniquepaths.estimator</code>
+ * setting: a job configuration entry for <code>GraphReducer</code>, or a
+ * system property for <code>App</code>. Both plan every component with a
+ * {@link StrategyPlanner} and use the engine where it chooses sampling,
+ * {@link StrategyPlanner#DEFAULT_SAMPLER} if none is set.
+ *
+ * A name may carry a parameter after a colon: <code>dynamic</code> for
+ * the Kroese-Roberts and multi-target samplers, which then prune their
+ * walks against the vertices already visited before every step, as in
+ * <code>multi-target:dynamic</code>, the budget of stochastic
+ * enumeration, as in <code>stochastic-enumeration:50</code>, the
+ * population of splitting, as in <code>splitting:200</code>, or the engine
+ * that bidirectional sampling runs in the cheaper direction, as in
+ * <code>bidirectional:kroese-roberts</code>, or the engine that an exact
+ * counter leaves the components it cannot count to, as in
+ * <code>exact:cross-entropy</code> or
+ * <code>feedback-vertex-set:knuth</code>. Without a parameter these run
+ * the multi-target engine.
+ *
+ * The default counts components of up to
+ * {@link ExactEstimator#DEFAULT_MAX_VERTICES} vertices by subsets and
+ * near-acyclic ones by a feedback vertex set, both exactly, and samples
+ * the others with the multi-target engine.
+ */
+public class PathEstimators {
+
+  public static final String CONFIG_KEY = "uniquepaths.estimator";
+  public static final String KROESE_ROBERTS = "kroese-roberts";
+  public static final String MULTI_TARGET = "multi-target";
+  public static final String CROSS_ENTROPY = "cross-entropy";
+  public static final String KNUTH = "knuth";
+  public static final String STOCHASTIC_ENUMERATION =
+      "stochastic-enumeration";
+  public static final String SPLITTING = "splitting";
+  public static final String BIDIRECTIONAL = "bidirectional";
+  public static final String EXACT = "exact";
+  public static final String FEEDBACK_VERTEX_SET = "feedback-vertex-set";
+  public static final String DEFAULT = EXACT;
+  public static final String DYNAMIC = "dynamic";
+
+  private static final Map<String, PathEstimator> registry =
+      new LinkedHashMap<>();
+
+  static {
+    register(KROESE_ROBERTS, new KroeseRobertsEstimator());
+    register(MULTI_TARGET, new MultiTargetEstimator());
+    register(CROSS_ENTROPY, new CrossEntropyEstimator());
+    register(KNUTH, new KnuthEstimator());
+    register(STOCHASTIC_ENUMERATION, new StochasticEnumerationEstimator());
+    register(SPLITTING, new SplittingEstimator());
+    register(BIDIRECTIONAL,
+        new BidirectionalEstimator(registry.get(MULTI_TARGET)));
+    register(FEEDBACK_VERTEX_SET,
+        new FeedbackVertexSetEstimator(registry.get(MULTI_TARGET)));
+    register(EXACT, new ExactEstimator(registry.get(FEEDBACK_VERTEX_SET)));
+  }
+
+  public static synchronized void register(String name,
+      PathEstimator estimator) {
+    registry.put(name, estimator);
+  }
+
+  public static synchronized Set<String> names() {
+    return Collections.unmodifiableSet(registry.keySet());
+  }
+
+  public static PathEstimator getDefault() {
+    return forName(DEFAULT);
+  }
+
+  /**
+   * @param spec an engine name, optionally followed by a colon and a
+   *     parameter.
+   *
+   * @throws IllegalArgumentException if no engine has the given name or the
+   *     engine does not take the given parameter.
+   */
+  public static synchronized PathEstimator forName(String spec) {
+    int colon = spec.indexOf(':');
+    String name = colon == -1 ? spec : spec.substring(0, colon);
+    PathEstimator estimator = registry.get(name.trim());
+    if (estimator == null) {
+      throw new IllegalArgumentException("Unknown estimator " + name
+          + ", expected one of " + registry.keySet());
+    }
+    if (colon == -1) {
+      return estimator;
+    }
+    if (estimator instanceof KroeseRobertsEstimator) {
+      return new KroeseRobertsEstimator(isDynamic(spec, colon));
+    }
+    if (estimator instanceof MultiTargetEstimator) {
+      return new MultiTargetEstimator(isDynamic(spec, colon));
+    }
+    if (estimator instanceof StochasticEnumerationEstimator) {
+      return new StochasticEnumerationEstimator(
+          Integer.parseInt(spec.substring(colon + 1).trim()));
+    }
+    if (estimator instanceof ExactEstimator) {
+      return new ExactEstimator(forName(spec.substring(colon + 1)));
+    }
+    if (estimator instanceof FeedbackVertexSetEstimator) {
+      return new FeedbackVertexSetEstimator(
+          forName(spec.substring(colon + 1)));
+    }
+    if (estimator instanceof BidirectionalEstimator) {
+      return new BidirectionalEstimator(forName(spec.substring(colon + 1)));
+    }
+    if (estimator instanceof SplittingEstimator) {
+      return new SplittingEstimator(
+          Integer.parseInt(spec.substring(colon + 1).trim()));
+    }
+    throw new IllegalArgumentException("Estimator " + name
+        + " takes no parameter");
+  }
+
+  /** Parses the only parameter of the walk samplers, <code>dynamic</code>. */
+  private static boolean isDynamic(String spec, int colon) {
+    String parameter = spec.substring(colon + 1).trim();
+    if (!parameter.equals(DYNAMIC)) {
+      throw new IllegalArgumentException("Expected " + DYNAMIC + ": "
+          + parameter);
+    }
+    return true;
+  }
+}
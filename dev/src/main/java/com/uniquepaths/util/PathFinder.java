@@ -1,15 +1,23 @@
 package com.uniquepaths.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class PathFinder {
 
+  /** Marks a count that no longer fits in a long. */
+  private static final long OVERFLOW = -1;
+  // Number of queued tasks beyond which the parallel enumeration stops
+  // forking and walks subtrees itself.
+  private static final int SURPLUS_TASKS = 3;
+
   /**
    * Brute Force implementation for computing the average length
    * of the paths in a graph between two nodes.
@@ -21,23 +29,15 @@ public class PathFinder {
    * @param end the value representing the node to end our graph
    *     traversal on.
    *
-   * @return the number of unique paths between <code>start</code>
-   *     and <code>end</code>
+   * @return an array containing the number of unique paths between
+   *     <code>start</code> and <code>end</code> and their average length.
    *
    */
   public static <T> double[] uniquePaths(Graph<T> graph,
       T start, T end) {
-    Node<T> sNode = graph.getNode(start);
-    Node<T> eNode = graph.getNode(end);
-    ArrayList<Integer> counts = new ArrayList<>();
-    int numberOfPaths = uniquePaths(sNode,
-        eNode, 0, counts);
-    int sum = 0;
-    for (int length : counts) {
-      sum += length;
-    }
-    return new double[]{(double) numberOfPaths,
-        numberOfPaths == 0.0 ? 0.0 : (double) sum/numberOfPaths};
+    LengthHistogram histogram = new LengthHistogram();
+    uniquePaths(graph.getNode(start), graph.getNode(end), 0, histogram);
+    return histogram.toArray();
   }
 
   /**
@@ -48,30 +48,193 @@ public class PathFinder {
    * @param end the node to end our graph traversal on.
    * @param length the current length of the path provided that the
    *     <code>curr</code> has a path that leads to <code>end</code>.
-   * @param counts the record of path lengths that we have determined
+   * @param histogram the record of path lengths that we have determined
    *     thus far.
    *
-   * @return the number of unique paths between <code>start</code>
-   *     and <code>end</code>
-   *
    */
-  private static <T> int uniquePaths(Node<T> curr,
-      Node<T> end, int length, ArrayList<Integer> counts) {
+  private static <T> void uniquePaths(Node<T> curr,
+      Node<T> end, int length, LengthHistogram histogram) {
     if (curr.getValue() == end.getValue()) {
-      counts.add(length);
-      return 1;
+      histogram.add(length);
+      return;
     }
-    int pathCount = 0;
     curr.setVisited(true);
     Node<T> node;
     for (Map.Entry<Node<T>, Integer> entry : curr.getEdges()) {
       node = entry.getKey();
       if (!node.visited()) {
-        pathCount += uniquePaths(node, end, length + 1, counts);
+        uniquePaths(node, end, length + 1, histogram);
       }
     }
     curr.setVisited(false);
-    return pathCount;
+  }
+
+  /**
+   * Brute Force implementation for computing the average length of the
+   * paths between two nodes of a {@link CompactGraph}. Visited state is
+   * kept in a primitive array rather than on shared nodes.
+   *
+   * @param graph the graph for which the average path length between
+   *     two nodes is to be determined.
+   * @param start the value representing the node to start our
+   *     graph traversal from.
+   * @param end the value representing the node to end our graph
+   *     traversal on.
+   *
+   * @return an array containing the number of unique paths between
+   *     <code>start</code> and <code>end</code> and their average length.
+   *
+   */
+  public static <T> double[] uniquePaths(CompactGraph<T> graph,
+      T start, T end) {
+    return uniquePathLengths(graph, start, end).toArray();
+  }
+
+  /**
+   * Like {@link #uniquePaths(CompactGraph, Object, Object)}, but returns
+   * the number of paths of every length.
+   */
+  public static <T> LengthHistogram uniquePathLengths(CompactGraph<T> graph,
+      T start, T end) {
+    int s = graph.indexOf(start);
+    int e = graph.indexOf(end);
+    LengthHistogram histogram = new LengthHistogram();
+    if (s != -1 && e != -1) {
+      uniquePaths(graph, s, e, 0, new boolean[graph.size()], histogram);
+    }
+    return histogram;
+  }
+
+  private static <T> void uniquePaths(CompactGraph<T> graph, int curr,
+      int end, int length, boolean[] visited, LengthHistogram histogram) {
+    if (curr == end) {
+      histogram.add(length);
+      return;
+    }
+    visited[curr] = true;
+    int adj;
+    for (int i = graph.edgeStart(curr); i < graph.edgeEnd(curr); ++i) {
+      adj = graph.target(i);
+      if (!visited[adj]) {
+        uniquePaths(graph, adj, end, length + 1, visited, histogram);
+      }
+    }
+    visited[curr] = false;
+  }
+
+  /**
+   * Parallel variant of {@link #uniquePaths(CompactGraph, Object, Object)}
+   * for graphs too large to enumerate on one core.
+   *
+   * The search runs on the common fork-join pool. Whenever it reaches a
+   * vertex with several unvisited neighbours that can still reach
+   * <code>end</code> while few tasks are queued, each of those subtrees
+   * is forked as its own task with a copy of the visited set, and idle
+   * threads steal them. Counts and length sums are merged as the tasks
+   * are joined into one {@link LengthHistogram}, so the result equals that
+   * of the sequential enumeration.
+   *
+   * @return an array containing the number of unique paths between
+   *     <code>start</code> and <code>end</code> and their average length.
+   *
+   */
+  public static <T> double[] uniquePathsParallel(CompactGraph<T> graph,
+      T start, T end) {
+    return uniquePathLengthsParallel(graph, start, end).toArray();
+  }
+
+  /**
+   * Like {@link #uniquePathsParallel(CompactGraph, Object, Object)}, but
+   * returns the number of paths of every length.
+   */
+  public static <T> LengthHistogram uniquePathLengthsParallel(
+      CompactGraph<T> graph, T start, T end) {
+    int s = graph.indexOf(start);
+    int e = graph.indexOf(end);
+    if (s == -1 || e == -1) {
+      return new LengthHistogram();
+    }
+    return ForkJoinPool.commonPool().invoke(new EnumerationTask<>(graph,
+        graph.coReachable(new int[]{e}), s, e, 0, new BitSet(graph.size())));
+  }
+
+  /**
+   * Enumerates the paths from one vertex with a visited set of its own,
+   * forking the subtrees of branching vertices while the pool runs short
+   * of queued work.
+   */
+  private static final class EnumerationTask<T>
+      extends RecursiveTask<LengthHistogram> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CompactGraph<T> graph;
+    private final boolean[] coReachable;
+    private final int start;
+    private final int end;
+    private final int length;
+    private final BitSet visited;
+
+    EnumerationTask(CompactGraph<T> graph, boolean[] coReachable, int start,
+        int end, int length, BitSet visited) {
+      this.graph = graph;
+      this.coReachable = coReachable;
+      this.start = start;
+      this.end = end;
+      this.length = length;
+      this.visited = visited;
+    }
+
+    @Override
+    protected LengthHistogram compute() {
+      LengthHistogram histogram = new LengthHistogram();
+      enumerate(start, length, histogram);
+      return histogram;
+    }
+
+    private void enumerate(int curr, int length,
+        LengthHistogram histogram) {
+      List<EnumerationTask<T>> forked;
+      BitSet copy;
+      int candidates = 0;
+      int adj;
+      if (curr == end) {
+        histogram.add(length);
+        return;
+      }
+      visited.set(curr);
+      for (int i = graph.edgeStart(curr); i < graph.edgeEnd(curr); ++i) {
+        adj = graph.target(i);
+        if (coReachable[adj] && !visited.get(adj)) {
+          ++candidates;
+        }
+      }
+      if (candidates > 1 && getSurplusQueuedTaskCount() < SURPLUS_TASKS) {
+        forked = new ArrayList<>(candidates);
+        for (int i = graph.edgeStart(curr); i < graph.edgeEnd(curr); ++i) {
+          adj = graph.target(i);
+          if (coReachable[adj] && !visited.get(adj)) {
+            copy = (BitSet) visited.clone();
+            forked.add(new EnumerationTask<>(graph, coReachable, adj, end,
+                length + 1, copy));
+          }
+        }
+        for (EnumerationTask<T> task : forked) {
+          task.fork();
+        }
+        for (int i = forked.size() - 1; i >= 0; --i) {
+          histogram.addAll(forked.get(i).join());
+        }
+      } else {
+        for (int i = graph.edgeStart(curr); i < graph.edgeEnd(curr); ++i) {
+          adj = graph.target(i);
+          if (coReachable[adj] && !visited.get(adj)) {
+            enumerate(adj, length + 1, histogram);
+          }
+        }
+      }
+      visited.clear(curr);
+    }
   }
 
   /**
@@ -91,8 +254,9 @@ public class PathFinder {
    *     our traversal
    *
    * @return an array containing the number of paths from
-   *     <code>start</code> to <code>end</code> in <code>graph</code>
-   *     and the average length of those paths.
+   *     <code>start</code> to <code>end</code> in <code>graph</code>,
+   *     the average length of those paths and the natural logarithm of
+   *     their number, see {@link #countPaths}.
    *
    */
   public static <T> double[] dagTraversal(Graph<T> graph, Graph<T> contracted,
@@ -104,30 +268,165 @@ public class PathFinder {
     SCC<T> entrySCC = sNode.scc;
     SCC<T> exitSCC = eNode.scc;
     computeEntryExitSCC(entrySCC, exitSCC, s, e);
-    List<Node<T>> dfsOrdered = dfsTopoSort(contracted, sNode, eNode);
-    sNode.addDistance((int)entrySCC.getTotalAvgPathLength(),
-        entrySCC.getTotalNumberPaths());
-    eNode.addDistance((int)exitSCC.getTotalAvgPathLength(),
-        exitSCC.getTotalNumberPaths());
-    eNode.setVisited(true);
-    System.out.println(dfsOrdered);
-    calculatePath(dfsOrdered, 0, sNode);
-    double lengthSums = 0.0;
-    double totalNumPaths = 0.0;
-    for (Map.Entry<Integer, Integer> entry : sNode.getDistances().entrySet()) {
-      lengthSums += entry.getValue() * entry.getKey();
-      totalNumPaths += entry.getValue();
-    }
-    lengthSums = totalNumPaths == 0.0 ? 0.0
-        : lengthSums/totalNumPaths;
+    Condensation<T> condensation = sNode.getCondensation();
+    int[] order = topologicalOrder(condensation.getDag(),
+        sNode.getSccNumber(), eNode.getSccNumber());
+    double[] result = countPaths(condensation, sccsOf(contracted), order,
+        sNode.getSccNumber(), eNode.getSccNumber());
     PathApproximation.resetGraph(graph);
-    return new double[]{totalNumPaths, lengthSums};
+    return result;
+  }
+
+  /** The component of every super node, indexed by component id. */
+  private static <T> List<SCC<T>> sccsOf(Graph<T> contracted) {
+    List<SCC<T>> sccs = new ArrayList<>(
+        Collections.<SCC<T>>nCopies(contracted.size(), null));
+    SuperNode<T> node;
+    for (Map.Entry<T, Node<T>> entry : contracted.getNodes()) {
+      node = (SuperNode<T>) entry.getValue();
+      sccs.set(node.getSccNumber(), node.scc);
+    }
+    return sccs;
+  }
+
+  /**
+   * Counts the paths from component <code>source</code> to component
+   * <code>sink</code> of a condensation and their average length.
+   *
+   * A path enters each component it crosses, takes one of the internal
+   * paths counted by {@link SCC#getTotalNumberPaths()} and leaves along
+   * one of the boundary edges to the next component. In reverse
+   * topological order every component therefore sums, over its condensed
+   * edges, the paths of the target component times the multiplicity of
+   * the edge, and multiplies by its own internal paths; each edge of the
+   * DAG is inspected once, so the whole count takes O(V + E).
+   *
+   * Counts are kept as longs for as long as they fit. Alongside, every
+   * count is also kept as its natural logarithm, which takes over once a
+   * long would overflow or a component reports a count that is not a
+   * whole number below 2^63; average lengths are averaged with weights
+   * relative to the largest term and never overflow.
+   *
+   * @param order the components in topological order; those not listed
+   *     have no paths to <code>sink</code>.
+   *
+   * @return the number of paths, their average length and the natural
+   *     logarithm of the number of paths. The number of paths is exact
+   *     while it fits in a long and taken from its logarithm beyond.
+   *
+   */
+  static <T> double[] countPaths(Condensation<T> condensation,
+      List<SCC<T>> sccs, int[] order, int source, int sink) {
+    CompactGraph<Integer> dag = condensation.getDag();
+    int n = dag.size();
+    long[] count = new long[n];
+    double[] logCount = new double[n];
+    double[] avgLength = new double[n];
+    long paths;
+    double internal;
+    double logPaths;
+    double length;
+    double boundary;
+    SCC<T> scc;
+    int c;
+    int d;
+    Arrays.fill(logCount, Double.NEGATIVE_INFINITY);
+    for (int i = order.length - 1; i >= 0; --i) {
+      c = order[i];
+      scc = sccs.get(c);
+      // A single vertex is its only internal path, whatever in- and
+      // out-nodes it was estimated with.
+      internal = scc.size() == 1 ? 1.0 : scc.getTotalNumberPaths();
+      if (c == sink) {
+        count[c] = toLong(internal);
+        logCount[c] = Math.log(internal);
+        avgLength[c] = scc.size() == 1 ? 0.0 : scc.getTotalAvgPathLength();
+        continue;
+      }
+
+      // Paths leaving c, summed over its condensed edges.
+      paths = 0;
+      logPaths = Double.NEGATIVE_INFINITY;
+      for (int k = dag.edgeStart(c); k < dag.edgeEnd(c); ++k) {
+        d = dag.target(k);
+        if (logCount[d] == Double.NEGATIVE_INFINITY) {
+          continue;
+        }
+        paths = add(paths, multiply(dag.weight(k), count[d]));
+        logPaths = logSum(logPaths, Math.log(dag.weight(k)) + logCount[d]);
+      }
+      if (internal == 0.0 || logPaths == Double.NEGATIVE_INFINITY) {
+        continue;
+      }
+
+      // Every boundary edge to d is followed by the paths of d, so each
+      // edge weighs in with the share of d among the paths leaving c.
+      length = 0.0;
+      for (int k = dag.edgeStart(c); k < dag.edgeEnd(c); ++k) {
+        d = dag.target(k);
+        if (logCount[d] == Double.NEGATIVE_INFINITY) {
+          continue;
+        }
+        boundary = 0.0;
+        for (int j = condensation.boundaryStart(k);
+            j < condensation.boundaryEnd(k); ++j) {
+          boundary += condensation.boundaryWeight(j);
+        }
+        length += Math.exp(logCount[d] - logPaths)
+            * (dag.weight(k) * avgLength[d] + boundary);
+      }
+      count[c] = multiply(toLong(internal), paths);
+      logCount[c] = Math.log(internal) + logPaths;
+      avgLength[c] = length
+          + (scc.size() == 1 ? 0.0 : scc.getTotalAvgPathLength());
+    }
+    if (logCount[source] == Double.NEGATIVE_INFINITY) {
+      return new double[]{0.0, 0.0, Double.NEGATIVE_INFINITY};
+    }
+    return new double[]{count[source] == OVERFLOW
+        ? Math.exp(logCount[source]) : (double) count[source],
+        avgLength[source], logCount[source]};
+  }
+
+  /**
+   * The count <code>x</code> as a long, or {@link #OVERFLOW} if it is not
+   * a whole number that fits in one.
+   */
+  private static long toLong(double x) {
+    if (x >= 0x1p63 || x != Math.rint(x)) {
+      return OVERFLOW;
+    }
+    return (long) x;
+  }
+
+  private static long add(long a, long b) {
+    if (a == OVERFLOW || b == OVERFLOW || a > Long.MAX_VALUE - b) {
+      return OVERFLOW;
+    }
+    return a + b;
+  }
+
+  private static long multiply(long a, long b) {
+    if (a == OVERFLOW || b == OVERFLOW
+        || (a != 0 && b > Long.MAX_VALUE/a)) {
+      return OVERFLOW;
+    }
+    return a * b;
+  }
+
+  /** Returns <code>log(exp(a) + exp(b))</code> without overflowing. */
+  static double logSum(double a, double b) {
+    double max = Math.max(a, b);
+    if (max == Double.NEGATIVE_INFINITY) {
+      return max;
+    }
+    return max + Math.log(Math.exp(a - max) + Math.exp(b - max));
   }
 
   private static <T> void computeEntryExitSCC(SCC<T> entry, SCC<T> exit,
       Node<T> s, Node<T> e) {
     double[] result = new double[2];
-    int result1 = 1;
+    double result1 = 1.0;
     double result2 = 1.0;
     if (entry.size() > 1) {
       for (Node<T> node : entry.getOutNodes()) {
@@ -138,11 +437,11 @@ public class PathFinder {
         result2 += result[1] * result[0];
       }
       result2 = result1 == 0.0 ? 0.0 : result2/result1;
-      entry.setTotalNumberPaths((int)result1);
+      entry.setTotalNumberPaths(result1);
       entry.setTotalAvgPathLength(result2);
     }
 
-    result1 = 1;
+    result1 = 1.0;
     result2 = 1.0;
 
     if (exit.size() > 1) {
@@ -154,108 +453,76 @@ public class PathFinder {
         result2 += result[1] * result[0];
       }
       result2 = result1 == 0.0 ? 0.0 : result2/result1;
-      exit.setTotalNumberPaths((int)Math.round(result1));
+      exit.setTotalNumberPaths(result1);
       exit.setTotalAvgPathLength(result2);
     }
   }
 
   /**
-   * Performs a Topologicial Sort of the nodes in graph in
-   * order of Depth-First Search.
+   * Orders the vertices of a DAG that lie on some path from
+   * <code>start</code> to <code>end</code> topologically, by Kahn's
+   * algorithm on in-degrees counted among those vertices only.
+   *
+   * Everything is kept in int arrays indexed by vertex id and no step
+   * recurses, so the length of the DAG is bounded only by the size of the
+   * arrays; the order takes O(V + E).
    *
-   * @param graph the graph for which the Topological Sort
-   *     is to take place on.
-   * @param sNode the node to begin the Topological Sort at.
+   * @param dag a directed acyclic graph, such as
+   *     {@link Condensation#getDag()}.
+   * @param start the id of the vertex the paths start from.
+   * @param end the id of the vertex the paths end at.
    *
-   * @return an {@link List} of the nodes in order of Topological Sort
+   * @return the ids of the vertices reachable from <code>start</code> and
+   *     co-reachable to <code>end</code>, each before all of its
+   *     successors; empty if <code>end</code> cannot be reached.
+   *
+   * @throws IllegalArgumentException if those vertices contain a cycle.
    *
    */
-  private static <T> List<Node<T>> dfsTopoSort(Graph<T> graph, Node<T> sNode, Node<T> eNode) {
-    List<Node<T>> topoSorted = new ArrayList<>();
-    Set<Node<T>> tSortSet = new HashSet<>();
-    dfsTopoSort(topoSorted, tSortSet, sNode, eNode);
-
-    // Since topological sort returns the list of nodes in order of
-    // finishing times, the first node we exam (our start node), will
-    // always be the last node in the list. For clarity in the algorithm
-    // for computing the number of paths from s to t as well as the
-    // average length of those paths between them, we will reverse the list.
-    Collections.reverse(topoSorted);
-    return topoSorted;
-  }
-
-  /** Auxiliary method to aid in computing the Topological Sort */
-  private static <T> void dfsTopoSort(List<Node<T>> tSorted,
-      Set<Node<T>> tSortSet, Node<T> node, Node<T> end) {
-    Node<T> adjNode;
-    node.setVisited(true);
-    for (Map.Entry<Node<T>, Integer> edge : node.getEdges()) {
-      adjNode = edge.getKey();
-      if (!adjNode.visited() && !tSortSet.contains(adjNode)) {
-        dfsTopoSort(tSorted, tSortSet, adjNode, end);
+  public static <T> int[] topologicalOrder(CompactGraph<T> dag, int start,
+      int end) {
+    boolean[] fromStart = dag.reversed().coReachable(new int[]{start});
+    boolean[] toEnd = dag.coReachable(new int[]{end});
+    int[] inDegree = new int[dag.size()];
+    int[] order;
+    int head = 0;
+    int tail = 0;
+    int count = 0;
+    int curr;
+    int next;
+    if (!fromStart[end]) {
+      return new int[0];
+    }
+    for (int v = 0; v < dag.size(); ++v) {
+      if (!fromStart[v] || !toEnd[v]) {
+        continue;
+      }
+      ++count;
+      for (int i = dag.edgeStart(v); i < dag.edgeEnd(v); ++i) {
+        next = dag.target(i);
+        if (fromStart[next] && toEnd[next]) {
+          ++inDegree[next];
+        }
       }
     }
-    node.setVisited(false);
-    tSorted.add(node);
-    tSortSet.add(node);
-  }
 
-  /**
-   * Computes the number of paths that exist between two nodes in a graph.
-   * 
-   * For this algorithm we perform a Depth-First Search (DFS) and only look
-   * at unvisited adjacent nodes that succeed the current node in order of 
-   * Topological Sort. Because this is a Directed Acyclical Graph (DAG) we
-   * can guarantee that any valid-adjacent nodes are nodes that we would
-   * have to repeatedly visit everytime we come across that node in the graph.
-   * Due to this property we only have to visit each node in the graph once 
-   * and make a record of the number of possible paths from that node to the 
-   * destination node, any node that has a directed edge to that node can then 
-   * aggregate its path count based off of this pre-existing record for its 
-   * adjacent node.
-   *
-   * @param sorted a list of nodes sorted according to Topological Sort. The
-   *     nodes we are computing the number of paths for in this graph must be 
-   *     contained within this list.
-   * @param position the current position in <code>sorted</code>
-   * @param curr the node for which we are computing the number of paths
-   *     to the final node in the topological sort.
-   *
-   */
-  private static <T> void calculatePath(List<Node<T>> sorted,
-      int position, Node<T> curr) {
-    int numPaths = 0;
-    double avgPathLen = 0.0;
-    int avgPathRound;
-    int currCount;
-    if (!curr.visited()) {
-      curr.setVisited(true);
-      for (int i = position + 1; i < sorted.size(); ++i) {
-        if (curr.hasEdge(sorted.get(i))) {
-          Node<T> adj = sorted.get(i);
-          SuperNode<T> currCasted = (SuperNode<T>) curr;
-          SuperNode<T> adjCasted = (SuperNode<T>) adj;
-          numPaths = currCasted.scc.getTotalNumberPaths();
-          avgPathLen = currCasted.scc.getTotalAvgPathLength();
-          avgPathRound = (int) Math.round(avgPathLen);
-          calculatePath(sorted, i, adj);
-          Map<T, Integer> weightValues
-              = currCasted.getEdgeWeights(adjCasted.getValue());
-          int edgeCount = currCasted.getEdgeCount(adjCasted.getValue());
-          for (Map.Entry<Integer, Integer> entry
-              : adj.getDistances().entrySet()) {
-            double average = 0.0;
-            for (Map.Entry<T, Integer> outEdge : weightValues.entrySet()) {
-              average += outEdge.getValue();
-            }
-            currCount = curr.getDistanceCount(entry.getKey())
-                == null ? 0 : curr.getDistanceCount(
-                    entry.getKey() + avgPathRound);
-            curr.addDistance(entry.getKey() + avgPathRound + (int) average,
-                (entry.getValue() + currCount) * numPaths + edgeCount);
-          }
+    // The order doubles as the queue of vertices whose predecessors have
+    // all been placed.
+    order = new int[count];
+    order[tail++] = start;
+    while (head < tail) {
+      curr = order[head++];
+      for (int i = dag.edgeStart(curr); i < dag.edgeEnd(curr); ++i) {
+        next = dag.target(i);
+        if (fromStart[next] && toEnd[next] && --inDegree[next] == 0) {
+          order[tail++] = next;
         }
       }
     }
+    if (tail < count) {
+      throw new IllegalArgumentException("Graph is not acyclic between "
+          + dag.valueOf(start) + " and " + dag.valueOf(end));
+    }
+    return order;
   }
 }
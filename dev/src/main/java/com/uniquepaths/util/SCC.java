@@ -13,9 +13,9 @@ public class SCC<T> extends Graph<T> {
   private Set<Node<T>> outNodes;
   private Set<Node<T>> inNodes;
   private List<Node<T>> nodeList;
-  private Map<Node<T>, Map<Node<T>, Integer>> numberPaths;
+  private Map<Node<T>, Map<Node<T>, Double>> numberPaths;
   private Map<Node<T>, Map<Node<T>, Double>> avgPathLengths;
-  private int totalNumberOfPaths;
+  private double totalNumberOfPaths;
   private double totalAvgPathLength;
 
   public SCC() {
@@ -67,11 +67,16 @@ public class SCC<T> extends Graph<T> {
     return containsNode(node.getValue());
   }
 
-  public int getTotalNumberPaths() {
+  /**
+   * The number of paths between all pairs of in- and out-nodes. It is a
+   * double, so counts beyond a long are kept to 53 bits rather than
+   * clamped, and is infinite only if the count exceeds a double.
+   */
+  public double getTotalNumberPaths() {
     return totalNumberOfPaths;
   }
 
-  public void setTotalNumberPaths(int totalNumberOfPaths) {
+  public void setTotalNumberPaths(double totalNumberOfPaths) {
     this.totalNumberOfPaths = totalNumberOfPaths;
   }
 
@@ -83,11 +88,11 @@ public class SCC<T> extends Graph<T> {
     this.totalAvgPathLength = totalAvgPathLength;
   }
 
-  public int getNumberPaths(T start, T end) {
+  public double getNumberPaths(T start, T end) {
     Node<T> sNode = nodeMap.get(start);
     Node<T> eNode = nodeMap.get(end);
-    Map<Node<T>, Integer> map = numberPaths.get(sNode);
-    int numPaths = 0;
+    Map<Node<T>, Double> map = numberPaths.get(sNode);
+    double numPaths = 0.0;
     if (map != null) {
       numPaths = map.get(eNode);
     }
@@ -105,36 +110,80 @@ public class SCC<T> extends Graph<T> {
     return avgLength;
   }
 
+  /**
+   * Estimates the paths from every in-node to every out-node with the
+   * default engine of {@link PathEstimators}.
+   */
   public void computeInternalDistances() {
-    double[] result;
-    int pathCount;
+    computeInternalDistances(PathEstimators.getDefault());
+  }
+
+  /** The topology of this component, see {@link SccShape#classify}. */
+  public SccShape getShape() {
+    return SccShape.classify(getCompactGraph());
+  }
+
+  /**
+   * Estimates the paths from every in-node to every out-node, calling
+   * <code>estimator</code> once per in-node. Which engine suits the
+   * component, a closed form of {@link SccShape} among them, is left to
+   * the caller, see {@link StrategyPlanner}.
+   */
+  public void computeInternalDistances(PathEstimator estimator) {
+    PathEstimate[] results;
+    double pathCount;
     double avgLength;
-    Graph<T> curr = this;
-    this.totalNumberOfPaths = 0;
+    double infiniteSum = 0.0;
+    int infinite = 0;
+    CompactGraph<T> curr = getCompactGraph();
+    List<Node<T>> outList = new ArrayList<>(outNodes);
+    List<T> ends = new ArrayList<>(outList.size());
+    Node<T> out;
+    this.totalNumberOfPaths = 0.0;
     this.totalAvgPathLength = 0.0;
     for (Node<T> in : inNodes) {
-      numberPaths.put(in, new HashMap<Node<T>, Integer>());
+      numberPaths.put(in, new HashMap<Node<T>, Double>());
       avgPathLengths.put(in, new HashMap<Node<T>, Double>());
     }
+    for (Node<T> node : outList) {
+      ends.add(node.getValue());
+    }
     for (Node<T> in : inNodes) {
-      for (Node<T> out : outNodes) {
-        result = PathApproximation.lengthDistribution(curr, in.getValue(),
-            out.getValue());
-        pathCount = (int) result[0];
-        avgLength = result[1];
+      results = estimator.estimate(curr, in.getValue(), ends);
+      for (int i = 0; i < outList.size(); ++i) {
+        out = outList.get(i);
+        pathCount = results[i].count;
+        avgLength = results[i].avgLength;
         numberPaths.get(in).put(out, pathCount);
         avgPathLengths.get(in).put(out, avgLength);
         totalNumberOfPaths += pathCount;
-        totalAvgPathLength += (pathCount * avgLength);
+        if (Double.isInfinite(pathCount)) {
+          infiniteSum += avgLength;
+          ++infinite;
+        } else {
+          totalAvgPathLength += (pathCount * avgLength);
+        }
       }
     }
-    totalAvgPathLength = totalNumberOfPaths == 0 ?
-       0.0 : totalAvgPathLength/totalNumberOfPaths;
+    // Pairs with more paths than a double holds outweigh all others, and
+    // are weighed equally among themselves.
+    if (infinite > 0) {
+      totalAvgPathLength = infiniteSum/infinite;
+    } else {
+      totalAvgPathLength = totalNumberOfPaths == 0.0 ?
+         0.0 : totalAvgPathLength/totalNumberOfPaths;
+    }
   }
 
-  public void addEdges(Graph<T> graph, Graph<T> transpose) {
-    // TODO(oluwatobi): get out edges
+  /**
+   * Adds the edges of <code>graph</code> between the nodes of this
+   * component and records the nodes with edges leaving or entering it.
+   * In-edges are looked up in {@link Graph#getCompactGraph()}.
+   */
+  public void addEdges(Graph<T> graph) {
+    CompactGraph<T> compact = graph.getCompactGraph();
     Node<T> wholeNode;
+    int v;
     for (Node<T> node : nodeList) {
       wholeNode = graph.getNode(node.getValue());
       for (Map.Entry<Node<T>, Integer> entry : wholeNode.getEdges()) {
@@ -145,12 +194,13 @@ public class SCC<T> extends Graph<T> {
         }
       }
 
-      wholeNode = transpose.getNode(node.getValue());
-      for (Map.Entry<Node<T>, Integer> entry : wholeNode.getEdges()) {
-        if (!nodeMap.containsKey(entry.getKey().getValue())) {
+      v = compact.indexOf(node.getValue());
+      for (int e = compact.inEdgeStart(v); e < compact.inEdgeEnd(v); ++e) {
+        if (!nodeMap.containsKey(compact.valueOf(compact.source(e)))) {
           this.inNodes.add(node);
-          this.numberPaths.put(node, new HashMap<Node<T>, Integer>());
+          this.numberPaths.put(node, new HashMap<Node<T>, Double>());
           this.avgPathLengths.put(node, new HashMap<Node<T>, Double>());
+          break;
         }
       }
     }
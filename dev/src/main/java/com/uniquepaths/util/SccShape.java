@@ -0,0 +1,223 @@
+package com.uniquepaths.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Topologies of strongly connected components whose simple paths have a
+ * closed form, recognised by {@link #classify} in time linear in the size
+ * of the component.
+ *
+ * In a complete digraph of <code>n</code> vertices a path between two
+ * distinct vertices is an ordering of any <code>k</code> of the
+ * <code>n - 2</code> others, so there are <code>(n-2)!/(n-2-k)!</code>
+ * paths of length <code>k + 1</code>. In a simple cycle, and in a tree
+ * whose edges go both ways (a bidirectional chain being the simplest),
+ * there is exactly one path between any two vertices, found by a
+ * breadth-first search. Components of any other shape are
+ * <code>GENERAL</code> and left to a fallback {@link PathEstimator}.
+ */
+public enum SccShape {
+
+  COMPLETE {
+    @Override
+    public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+        List<T> ends, PathEstimator fallback) {
+      PathEstimate[] estimates = new PathEstimate[ends.size()];
+      int n = graph.size();
+      int s = graph.indexOf(start);
+      int e;
+      double count = 0.0;
+      double logCount = Double.NEGATIVE_INFINITY;
+      double avgLength = 0.0;
+      double paths = 1.0;
+      double logPaths = 0.0;
+      // paths is (n-2)!/(n-2-k)!, the number of paths of length k + 1. The
+      // count is exact up to 2^53 and overflows to infinity from n = 173
+      // on, so the average length is weighed in log space, as in
+      // PathFinder#countPaths, and stays finite.
+      for (int k = 0; k <= n - 2; ++k) {
+        count += paths;
+        logCount = PathFinder.logSum(logCount, logPaths);
+        paths *= n - 2 - k;
+        logPaths += Math.log(n - 2 - k);
+      }
+      logPaths = 0.0;
+      for (int k = 0; k <= n - 2; ++k) {
+        avgLength += (k + 1) * Math.exp(logPaths - logCount);
+        logPaths += Math.log(n - 2 - k);
+      }
+      for (int i = 0; i < estimates.length; ++i) {
+        e = graph.indexOf(ends.get(i));
+        if (s == -1 || e == -1) {
+          estimates[i] = PathEstimate.exact(0.0, 0.0);
+        } else if (s == e) {
+          estimates[i] = PathEstimate.exact(1.0, 0.0);
+        } else {
+          estimates[i] = PathEstimate.exact(count, avgLength)
+              .plusCost(0, graph.edgeCount());
+        }
+      }
+      return estimates;
+    }
+  },
+
+  CYCLE {
+    @Override
+    public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+        List<T> ends, PathEstimator fallback) {
+      return uniquePaths(graph, start, ends);
+    }
+  },
+
+  BIDIRECTED_TREE {
+    @Override
+    public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+        List<T> ends, PathEstimator fallback) {
+      return uniquePaths(graph, start, ends);
+    }
+  },
+
+  GENERAL {
+    @Override
+    public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+        List<T> ends, PathEstimator fallback) {
+      return fallback.estimate(graph, start, ends);
+    }
+  };
+
+  /**
+   * @param fallback the engine that estimates the paths of a
+   *     <code>GENERAL</code> component instead.
+   *
+   * @return the exact number and average length of the paths from
+   *     <code>start</code> to each of <code>ends</code>, in the form of
+   *     {@link PathEstimator#estimate}, or the estimates of
+   *     <code>fallback</code> if this is <code>GENERAL</code>.
+   */
+  public abstract <T> PathEstimate[] estimate(CompactGraph<T> graph,
+      T start, List<T> ends, PathEstimator fallback);
+
+  /**
+   * The shape of <code>graph</code>. Connectivity is checked as well, so
+   * any graph may be passed.
+   */
+  public static <T> SccShape classify(CompactGraph<T> graph) {
+    int n = graph.size();
+    long m = graph.edgeCount();
+    if (n == 0 || hasSelfLoop(graph)) {
+      return GENERAL;
+    }
+    // Repeated edges are dropped by CompactGraph, so n(n-1) edges without
+    // self-loops are all the ordered pairs.
+    if (m == (long) n * (n - 1)) {
+      return COMPLETE;
+    }
+    if (m == n && isCycle(graph)) {
+      return CYCLE;
+    }
+    if (m == 2L * (n - 1) && isSymmetric(graph)
+        && reachedFrom(graph, 0) == n) {
+      return BIDIRECTED_TREE;
+    }
+    return GENERAL;
+  }
+
+  private static <T> boolean hasSelfLoop(CompactGraph<T> graph) {
+    for (int v = 0; v < graph.size(); ++v) {
+      for (int i = graph.edgeStart(v); i < graph.edgeEnd(v); ++i) {
+        if (graph.target(i) == v) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Whether following the single out-edges from 0 visits every vertex. */
+  private static <T> boolean isCycle(CompactGraph<T> graph) {
+    int n = graph.size();
+    int curr = 0;
+    for (int v = 0; v < n; ++v) {
+      if (graph.outDegree(v) != 1) {
+        return false;
+      }
+    }
+    for (int steps = 1; steps <= n; ++steps) {
+      curr = graph.target(graph.edgeStart(curr));
+      if (curr == 0) {
+        return steps == n;
+      }
+    }
+    return false;
+  }
+
+  /** Whether every edge has a reverse edge. */
+  private static <T> boolean isSymmetric(CompactGraph<T> graph) {
+    int n = graph.size();
+    int[] marked = new int[n];
+    for (int v = 0; v < n; ++v) {
+      if (graph.inDegree(v) != graph.outDegree(v)) {
+        return false;
+      }
+      for (int i = graph.edgeStart(v); i < graph.edgeEnd(v); ++i) {
+        marked[graph.target(i)] = v + 1;
+      }
+      for (int i = graph.inEdgeStart(v); i < graph.inEdgeEnd(v); ++i) {
+        if (marked[graph.source(i)] != v + 1) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static <T> int reachedFrom(CompactGraph<T> graph, int root) {
+    return distances(graph, root)[graph.size()];
+  }
+
+  /**
+   * Breadth-first distances from <code>root</code>, -1 for vertices it
+   * does not reach, followed by the number of vertices reached.
+   */
+  private static <T> int[] distances(CompactGraph<T> graph, int root) {
+    int n = graph.size();
+    int[] dist = new int[n + 1];
+    int[] queue = new int[n];
+    int head = 0;
+    int tail = 0;
+    int curr;
+    int next;
+    Arrays.fill(dist, 0, n, -1);
+    dist[root] = 0;
+    queue[tail++] = root;
+    while (head < tail) {
+      curr = queue[head++];
+      for (int i = graph.edgeStart(curr); i < graph.edgeEnd(curr); ++i) {
+        next = graph.target(i);
+        if (dist[next] == -1) {
+          dist[next] = dist[curr] + 1;
+          queue[tail++] = next;
+        }
+      }
+    }
+    dist[n] = tail;
+    return dist;
+  }
+
+  /** Estimates for a graph with a single path between any two vertices. */
+  private static <T> PathEstimate[] uniquePaths(CompactGraph<T> graph,
+      T start, List<T> ends) {
+    PathEstimate[] estimates = new PathEstimate[ends.size()];
+    int s = graph.indexOf(start);
+    int[] dist = s == -1 ? null : distances(graph, s);
+    int e;
+    for (int i = 0; i < estimates.length; ++i) {
+      e = graph.indexOf(ends.get(i));
+      estimates[i] = s == -1 || e == -1 || dist[e] == -1
+          ? PathEstimate.exact(0.0, 0.0)
+          : PathEstimate.exact(1.0, dist[e]).plusCost(0, graph.edgeCount());
+    }
+    return estimates;
+  }
+}
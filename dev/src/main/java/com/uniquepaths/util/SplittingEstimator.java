@@ -0,0 +1,240 @@
+package com.uniquepaths.util;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Multilevel splitting over the tree of simple paths from the start vertex
+ * in which the end is a leaf, for components whose paths are mostly long
+ * and which plain walks rarely complete.
+ *
+ * A run moves a population of <code>particles</code> partial walks one
+ * level, that is one edge, at a time. Each walk steps to a random unvisited
+ * neighbour that can still reach the end and multiplies its weight by the
+ * number it chose from; walks reaching the end are counted and retire,
+ * walks with nowhere to go die. The survivors are then resampled back to
+ * the full population in proportion to their weights (systematic
+ * resampling), so heavy walks that got deep are cloned and light ones are
+ * killed, and every clone carries the average weight. The total weight is
+ * kept by resampling, which makes the completed weights over the
+ * population an unbiased estimate of the number of paths.
+ *
+ * The number of runs is chosen adaptively as in {@link PathApproximation};
+ * the reported samples and walks count runs, not particles.
+ */
+public class SplittingEstimator extends SamplingEstimator {
+
+  public static final int DEFAULT_PARTICLES = 100;
+
+  private final int particles;
+
+  public SplittingEstimator() {
+    this(DEFAULT_PARTICLES);
+  }
+
+  /**
+   * Uses the default precision, with the walk counts of
+   * {@link PathApproximation} divided by the population as the limits on
+   * runs.
+   */
+  public SplittingEstimator(int particles) {
+    this(particles, PathApproximation.DEFAULT_RELATIVE_ERROR,
+        PathApproximation.DEFAULT_CONFIDENCE,
+        Math.max(2, PathApproximation.MIN_SAMPLES/particles),
+        Math.max(2, PathApproximation.MAX_SAMPLES/particles));
+  }
+
+  public SplittingEstimator(int particles, double relativeError,
+      double confidence, int minSamples, int maxSamples) {
+    super(relativeError, confidence, minSamples, maxSamples);
+    if (particles < 1) {
+      throw new IllegalArgumentException("particles must be positive: "
+          + particles);
+    }
+    this.particles = particles;
+  }
+
+  public int getParticles() {
+    return particles;
+  }
+
+  @Override
+  public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+      List<T> ends) {
+    PathEstimate[] estimates = new PathEstimate[ends.size()];
+    int s = graph.indexOf(start);
+    int e;
+    for (int i = 0; i < estimates.length; ++i) {
+      e = graph.indexOf(ends.get(i));
+      if (s == -1 || e == -1) {
+        estimates[i] = PathEstimate.exact(0.0, 0.0);
+        continue;
+      }
+      if (s == e) {
+        estimates[i] = PathEstimate.exact(1.0, 0.0);
+        continue;
+      }
+      estimates[i] = PathApproximation.toEstimate(
+          sample(batch(graph, s, e, graph.coReachable(new int[]{e}))), 0);
+    }
+    return estimates;
+  }
+
+  private <T> PathApproximation.Batch batch(final CompactGraph<T> graph,
+      final int start, final int end, final boolean[] coReachable) {
+    return new PathApproximation.Batch() {
+      @Override
+      public double[] run(int count, SplittableRandom random) {
+        return new Run<>(graph, start, end, coReachable, particles, random)
+            .run(count);
+      }
+    };
+  }
+
+  /** The population of partial walks of one batch of runs. */
+  private static final class Run<T> {
+
+    private final CompactGraph<T> graph;
+    private final int start;
+    private final int end;
+    private final boolean[] coReachable;
+    private final int particles;
+    private final SplittableRandom random;
+    private int[] vertices;
+    private BitSet[] visited;
+    private double[] weights;
+    private int[] nextVertices;
+    private BitSet[] nextVisited;
+    private long touched;
+
+    Run(CompactGraph<T> graph, int start, int end, boolean[] coReachable,
+        int particles, SplittableRandom random) {
+      this.graph = graph;
+      this.start = start;
+      this.end = end;
+      this.coReachable = coReachable;
+      this.particles = particles;
+      this.random = random;
+      this.vertices = new int[particles];
+      this.visited = new BitSet[particles];
+      this.weights = new double[particles];
+      this.nextVertices = new int[particles];
+      this.nextVisited = new BitSet[particles];
+    }
+
+    double[] run(int count) {
+      double[] sums = new double[PathApproximation.MOMENTS];
+      double[] result = new double[2];
+      for (int i = 0; i < count; ++i) {
+        split(result);
+        PathApproximation.record(sums, 0, result[0], result[1]);
+      }
+      sums[PathApproximation.COST] = touched;
+      return sums;
+    }
+
+    /**
+     * One run; stores the estimated number of paths and the estimated sum
+     * of their lengths in <code>result</code>.
+     */
+    private void split(double[] result) {
+      double total;
+      int size = particles;
+      int alive;
+      int level = 0;
+      result[0] = 0.0;
+      result[1] = 0.0;
+      for (int x = 0; x < particles; ++x) {
+        vertices[x] = start;
+        visited[x] = new BitSet(graph.size());
+        visited[x].set(start);
+        weights[x] = 1.0;
+      }
+      while (size > 0) {
+        ++level;
+        alive = 0;
+        total = 0.0;
+        for (int x = 0; x < size; ++x) {
+          if (!step(x)) {
+            continue;
+          }
+          if (vertices[x] == end) {
+            result[0] += weights[x]/particles;
+            result[1] += level * weights[x]/particles;
+            continue;
+          }
+          // Compact the survivors to the front.
+          vertices[alive] = vertices[x];
+          visited[alive] = visited[x];
+          weights[alive] = weights[x];
+          total += weights[x];
+          ++alive;
+        }
+        if (alive == 0) {
+          return;
+        }
+        resample(alive, total);
+        size = particles;
+      }
+    }
+
+    /**
+     * Moves walk <code>x</code> to a random unvisited neighbour that can
+     * still reach the end.
+     *
+     * @return false if there is none and the walk dies.
+     */
+    private boolean step(int x) {
+      int v = vertices[x];
+      int next = -1;
+      int candidates = 0;
+      int u;
+      touched += graph.outDegree(v);
+      for (int i = graph.edgeStart(v); i < graph.edgeEnd(v); ++i) {
+        u = graph.target(i);
+        if (coReachable[u] && !visited[x].get(u)
+            && random.nextInt(++candidates) == 0) {
+          next = u;
+        }
+      }
+      if (next == -1) {
+        return false;
+      }
+      vertices[x] = next;
+      visited[x].set(next);
+      weights[x] = weights[x] * candidates;
+      return true;
+    }
+
+    /**
+     * Systematic resampling of the first <code>alive</code> walks back to
+     * the full population, each clone weighted by the average weight.
+     */
+    private void resample(int alive, double total) {
+      double average = total/particles;
+      double u = random.nextDouble() * average;
+      double cumulative = weights[0];
+      int x = 0;
+      int[] tmpVertices;
+      BitSet[] tmpVisited;
+      for (int j = 0; j < particles; ++j) {
+        while (cumulative < u && x < alive - 1) {
+          cumulative += weights[++x];
+        }
+        nextVertices[j] = vertices[x];
+        nextVisited[j] = (BitSet) visited[x].clone();
+        u += average;
+      }
+      tmpVertices = vertices;
+      vertices = nextVertices;
+      nextVertices = tmpVertices;
+      tmpVisited = visited;
+      visited = nextVisited;
+      nextVisited = tmpVisited;
+      for (int j = 0; j < particles; ++j) {
+        weights[j] = average;
+      }
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package com.uniquepaths.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FeedbackVertexSetEstimatorTest {
+
+  /** Answers every end it is asked for with no paths and records it. */
+  private static final class RecordingEstimator implements PathEstimator {
+
+    private final List<Object> asked = new ArrayList<>();
+
+    @Override
+    public <T> PathEstimate[] estimate(CompactGraph<T> graph, T start,
+        List<T> ends) {
+      PathEstimate[] estimates = new PathEstimate[ends.size()];
+      asked.addAll(ends);
+      Arrays.fill(estimates, PathEstimate.exact(0.0, 0.0));
+      return estimates;
+    }
+  }
+
+  private static CompactGraph<Integer> graph(int n,
+      List<Edge<Integer>> edges) {
+    List<Integer> vertices = new ArrayList<>(n);
+    for (int v = 0; v < n; ++v) {
+      vertices.add(v);
+    }
+    return CompactGraph.fromEdges(vertices, edges);
+  }
+
+  /**
+   * Compares the estimates from <code>start</code> to every vertex with a
+   * brute-force enumeration, and checks that none was left to the
+   * fallback.
+   */
+  private static void assertMatchesEnumeration(CompactGraph<Integer> graph,
+      int start) {
+    RecordingEstimator fallback = new RecordingEstimator();
+    List<Integer> ends = new ArrayList<>();
+    PathEstimate[] estimates;
+    double[] expected;
+    for (int v = 0; v < graph.size(); ++v) {
+      ends.add(v);
+    }
+    estimates = new FeedbackVertexSetEstimator(fallback)
+        .estimate(graph, start, ends);
+    assertTrue(fallback.asked.isEmpty());
+    for (int v = 0; v < graph.size(); ++v) {
+      expected = PathFinder.uniquePaths(graph, start, v);
+      assertEquals(expected[0], estimates[v].count, 0.0);
+      assertEquals(expected[1], estimates[v].avgLength, 1e-9);
+    }
+  }
+
+  @Test
+  public void countsAcyclicGraphsWithoutFeedback() {
+    Random random = new Random(1);
+    List<Edge<Integer>> edges;
+    CompactGraph<Integer> graph;
+    boolean[] all;
+    int n;
+    for (int i = 0; i < 50; ++i) {
+      n = 2 + random.nextInt(12);
+      edges = new ArrayList<>();
+      for (int v = 0; v < n; ++v) {
+        for (int w = v + 1; w < n; ++w) {
+          if (random.nextDouble() < 0.4) {
+            edges.add(new Edge<>(v, w, 1));
+          }
+        }
+      }
+      graph = graph(n, edges);
+      all = new boolean[n];
+      Arrays.fill(all, true);
+      assertEquals(0,
+          FeedbackVertexSetEstimator.feedbackVertexSet(graph, all, n)
+              .length);
+      assertMatchesEnumeration(graph, 0);
+    }
+  }
+
+  @Test
+  public void countsDirectEdgeToEnd() {
+    List<Edge<Integer>> edges = new ArrayList<>();
+    CompactGraph<Integer> graph;
+    // 0 -> 3 directly, and through 1 and 2, which form a cycle.
+    edges.add(new Edge<>(0, 3, 1));
+    edges.add(new Edge<>(0, 1, 1));
+    edges.add(new Edge<>(1, 2, 1));
+    edges.add(new Edge<>(2, 1, 1));
+    edges.add(new Edge<>(2, 3, 1));
+    edges.add(new Edge<>(1, 3, 1));
+    edges.add(new Edge<>(3, 0, 1));
+    graph = graph(4, edges);
+    assertMatchesEnumeration(graph, 0);
+    assertEquals(3.0, new FeedbackVertexSetEstimator(null)
+        .estimate(graph, 0, Arrays.asList(3))[0].count, 0.0);
+  }
+
+  @Test
+  public void countsRandomNearAcyclicGraphs() {
+    Random random = new Random(2);
+    List<Edge<Integer>> edges;
+    int n;
+    int v;
+    for (int i = 0; i < 100; ++i) {
+      n = 3 + random.nextInt(12);
+      edges = new ArrayList<>();
+      for (v = 0; v < n; ++v) {
+        for (int w = v + 1; w < Math.min(n, v + 5); ++w) {
+          if (random.nextDouble() < 0.5) {
+            edges.add(new Edge<>(v, w, 1));
+          }
+        }
+      }
+      for (int b = random.nextInt(4); b > 0; --b) {
+        v = 1 + random.nextInt(n - 1);
+        edges.add(new Edge<>(v, random.nextInt(v), 1));
+      }
+      assertMatchesEnumeration(graph(n, edges), random.nextInt(2));
+    }
+  }
+
+  @Test
+  public void fallsBackWhenTokensDoNotFitInALong() {
+    // A complete digraph on 64 vertices between the start 64 and the end
+    // 65 needs 63 feedback vertices, and a sequence through all of them
+    // moves 64 tokens of at least one bit each.
+    int k = 64;
+    List<Edge<Integer>> edges = new ArrayList<>();
+    RecordingEstimator fallback = new RecordingEstimator();
+    PathEstimate[] estimates;
+    for (int v = 0; v < k; ++v) {
+      edges.add(new Edge<>(k, v, 1));
+      edges.add(new Edge<>(v, k + 1, 1));
+      for (int w = 0; w < k; ++w) {
+        if (v != w) {
+          edges.add(new Edge<>(v, w, 1));
+        }
+      }
+    }
+    estimates = new FeedbackVertexSetEstimator(fallback, k, Integer.MAX_VALUE)
+        .estimate(graph(k + 2, edges), k, Arrays.asList(k + 1, k));
+    assertEquals(Arrays.<Object>asList(k + 1), fallback.asked);
+    assertEquals(0.0, estimates[0].count, 0.0);
+    assertEquals(1.0, estimates[1].count, 0.0);
+  }
+
+  @Test
+  public void fallsBackOnLargeFeedbackVertexSets() {
+    List<Edge<Integer>> edges = new ArrayList<>();
+    RecordingEstimator fallback = new RecordingEstimator();
+    // Three disjoint 2-cycles between the start 6 and the end 7.
+    for (int v = 0; v < 6; v += 2) {
+      edges.add(new Edge<>(6, v, 1));
+      edges.add(new Edge<>(v, v + 1, 1));
+      edges.add(new Edge<>(v + 1, v, 1));
+      edges.add(new Edge<>(v + 1, 7, 1));
+    }
+    new FeedbackVertexSetEstimator(fallback, 2, Integer.MAX_VALUE)
+        .estimate(graph(8, edges), 6, Arrays.asList(7));
+    assertEquals(Arrays.<Object>asList(7), fallback.asked);
+  }
+}
@@ -0,0 +1,138 @@
+package com.uniquepaths.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class IncrementalStronglyConnectedComponentsTest {
+
+  /**
+   * Asserts that <code>sccs</code> groups the vertices of its graph exactly
+   * as Tarjan's algorithm does on the graph as it stands.
+   */
+  private static void assertMatchesTarjan(
+      IncrementalStronglyConnectedComponents<Integer> sccs) {
+    CompactGraph<Integer> graph = CompactGraph.fromGraph(sccs.getGraph());
+    int[] expected = StronglyConnectedComponents.getComponentIds(graph);
+    Map<Integer, Integer> toActual = new HashMap<>();
+    Map<Integer, Integer> toExpected = new HashMap<>();
+    int actual;
+    for (int v = 0; v < graph.size(); ++v) {
+      actual = sccs.getComponentId(graph.valueOf(v));
+      if (!toActual.containsKey(expected[v])
+          && !toExpected.containsKey(actual)) {
+        toActual.put(expected[v], actual);
+        toExpected.put(actual, expected[v]);
+      }
+      assertEquals(Integer.valueOf(actual), toActual.get(expected[v]));
+      assertEquals(Integer.valueOf(expected[v]), toExpected.get(actual));
+    }
+    assertEquals(StronglyConnectedComponents.getComponentCount(expected),
+        sccs.size());
+  }
+
+  /** The component id of every vertex of the graph of <code>sccs</code>. */
+  private static Map<Integer, Integer> idsOf(
+      IncrementalStronglyConnectedComponents<Integer> sccs) {
+    Map<Integer, Integer> ids = new HashMap<>();
+    for (Map.Entry<Integer, Node<Integer>> entry
+        : sccs.getGraph().getNodes()) {
+      ids.put(entry.getKey(), sccs.getComponentId(entry.getKey()));
+    }
+    return ids;
+  }
+
+  /**
+   * Asserts that every vertex that changed component reports both its old
+   * and its new id in <code>changed</code>, and that the old id is retired.
+   */
+  private static void assertReported(
+      IncrementalStronglyConnectedComponents<Integer> sccs,
+      Map<Integer, Integer> before, Set<Integer> changed) {
+    int now;
+    for (Map.Entry<Integer, Integer> entry : before.entrySet()) {
+      now = sccs.getComponentId(entry.getKey());
+      if (now != entry.getValue()) {
+        assertTrue(changed.contains(entry.getValue()));
+        assertTrue(changed.contains(now));
+        assertFalse(sccs.containsComponent(entry.getValue()));
+      }
+    }
+  }
+
+  @Test
+  public void matchesTarjanUnderRandomUpdates() {
+    Random random = new Random(1);
+    IncrementalStronglyConnectedComponents<Integer> sccs;
+    Graph<Integer> graph;
+    List<Edge<Integer>> edges;
+    Map<Integer, Integer> before;
+    Set<Integer> changed;
+    Edge<Integer> edge;
+    int n;
+    for (int i = 0; i < 20; ++i) {
+      n = 2 + random.nextInt(30);
+      graph = new Graph<>();
+      for (int k = 0; k < n; ++k) {
+        graph.addEdge(random.nextInt(n), random.nextInt(n));
+      }
+      sccs = new IncrementalStronglyConnectedComponents<>(graph);
+      assertMatchesTarjan(sccs);
+      for (int k = 0; k < 200; ++k) {
+        before = idsOf(sccs);
+        edges = graph.getGraphAsEdgeList();
+        if (edges.isEmpty() || random.nextBoolean()) {
+          changed = sccs.addEdge(random.nextInt(n), random.nextInt(n));
+        } else {
+          edge = edges.get(random.nextInt(edges.size()));
+          changed = sccs.removeEdge(edge.from, edge.to);
+        }
+        assertReported(sccs, before, changed);
+        assertMatchesTarjan(sccs);
+      }
+    }
+  }
+
+  @Test
+  public void renumbersWhenSplitsExhaustTheGap() {
+    // A path 0 <-> 1 <-> ... <-> 20 leading to 21. Cutting the far end off
+    // one vertex at a time halves the gap before 21 with every split, so
+    // the seventeenth split finds no room left.
+    int m = 20;
+    Graph<Integer> graph = new Graph<>();
+    IncrementalStronglyConnectedComponents<Integer> sccs;
+    Set<Integer> changed;
+    int retired;
+    graph.addEdge(0, m + 1);
+    for (int v = 0; v < m; ++v) {
+      graph.addEdge(v, v + 1);
+      graph.addEdge(v + 1, v);
+    }
+    sccs = new IncrementalStronglyConnectedComponents<>(graph);
+    for (int v = m; v > 0; --v) {
+      retired = sccs.getComponentId(0);
+      changed = sccs.removeEdge(v - 1, v);
+      assertFalse(sccs.containsComponent(retired));
+      assertTrue(changed.contains(retired));
+      assertTrue(changed.contains(sccs.getComponentId(0)));
+      assertTrue(changed.contains(sccs.getComponentId(v)));
+      assertEquals(3, changed.size());
+      assertMatchesTarjan(sccs);
+    }
+    assertEquals(m + 2, sccs.size());
+    // Closing the path into a cycle again only works out if the order
+    // survived the renumbering.
+    changed = sccs.addEdge(0, m);
+    assertEquals(m + 2, changed.size());
+    assertMatchesTarjan(sccs);
+    assertEquals(2, sccs.size());
+  }
+}
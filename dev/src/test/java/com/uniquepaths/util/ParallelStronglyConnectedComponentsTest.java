@@ -0,0 +1,137 @@
+package com.uniquepaths.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ParallelStronglyConnectedComponentsTest {
+
+  private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+  /**
+   * A random graph of <code>n</code> vertices: a few long cycles make up
+   * large components, and sparse random edges join them and add many
+   * small ones.
+   */
+  private static CompactGraph<Integer> randomGraph(Random random, int n) {
+    List<Edge<Integer>> edges = new ArrayList<>();
+    List<Integer> vertices = new ArrayList<>(n);
+    int cycles = 1 + random.nextInt(4);
+    int length;
+    int first;
+    for (int v = 0; v < n; ++v) {
+      vertices.add(v);
+    }
+    for (int c = 0; c < cycles; ++c) {
+      length = 2 + random.nextInt(Math.max(1, n / (2 * cycles)));
+      first = random.nextInt(n);
+      for (int i = 0; i < length; ++i) {
+        edges.add(new Edge<>((first + i) % n, (first + i + 1) % n, 1));
+      }
+      edges.add(new Edge<>((first + length) % n, first, 1));
+    }
+    for (int i = 0; i < n; ++i) {
+      edges.add(new Edge<>(random.nextInt(n), random.nextInt(n), 1));
+    }
+    return CompactGraph.fromEdges(vertices, edges);
+  }
+
+  /**
+   * Asserts that <code>actual</code> groups the vertices exactly as
+   * <code>expected</code> does, and that both number the components in a
+   * reverse topological order.
+   */
+  private static void assertSameComponents(CompactGraph<Integer> graph,
+      int[] expected, int[] actual) {
+    int count = StronglyConnectedComponents.getComponentCount(expected);
+    int[] toActual = new int[count];
+    int[] toExpected = new int[count];
+    int v;
+    assertEquals(count,
+        StronglyConnectedComponents.getComponentCount(actual));
+    Arrays.fill(toActual, -1);
+    Arrays.fill(toExpected, -1);
+    for (v = 0; v < graph.size(); ++v) {
+      if (toActual[expected[v]] == -1 && toExpected[actual[v]] == -1) {
+        toActual[expected[v]] = actual[v];
+        toExpected[actual[v]] = expected[v];
+      }
+      assertEquals(actual[v], toActual[expected[v]]);
+      assertEquals(expected[v], toExpected[actual[v]]);
+    }
+    for (v = 0; v < graph.size(); ++v) {
+      for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); ++e) {
+        assertTrue(expected[v] >= expected[graph.target(e)]);
+        assertTrue(actual[v] >= actual[graph.target(e)]);
+      }
+    }
+  }
+
+  @Test
+  public void matchesTarjanOnSmallGraphs() {
+    Random random = new Random(1);
+    CompactGraph<Integer> graph;
+    for (int i = 0; i < 200; ++i) {
+      graph = randomGraph(random, 1 + random.nextInt(200));
+      assertSameComponents(graph,
+          StronglyConnectedComponents.getComponentIds(graph),
+          ParallelStronglyConnectedComponents.getComponentIds(graph, POOL));
+    }
+  }
+
+  @Test
+  public void matchesTarjanAboveSequentialThreshold() {
+    Random random = new Random(2);
+    CompactGraph<Integer> graph;
+    for (int i = 0; i < 10; ++i) {
+      graph = randomGraph(random,
+          ParallelStronglyConnectedComponents.SEQUENTIAL_THRESHOLD
+              * (2 + random.nextInt(8)));
+      assertSameComponents(graph,
+          StronglyConnectedComponents.getComponentIds(graph),
+          ParallelStronglyConnectedComponents.getComponentIds(graph, POOL));
+    }
+  }
+
+  /** Maps each vertex id to the position of its component in the list. */
+  private static int[] positions(CompactGraph<Integer> graph,
+      List<SCC<Integer>> sccs) {
+    int[] position = new int[graph.size()];
+    for (int i = 0; i < sccs.size(); ++i) {
+      for (Node<Integer> node : sccs.get(i).getExpandedNodes()) {
+        position[graph.indexOf(node.getValue())] = i;
+      }
+    }
+    return position;
+  }
+
+  @Test
+  public void parallelDefaultMatchesTarjan() {
+    Random random = new Random(3);
+    CompactGraph<Integer> compact = randomGraph(random,
+        StronglyConnectedComponents.PARALLEL_THRESHOLD + 1000);
+    Graph<Integer> graph = new Graph<>();
+    List<SCC<Integer>> sequential;
+    List<SCC<Integer>> parallel;
+    for (int v = 0; v < compact.size(); ++v) {
+      for (int e = compact.edgeStart(v); e < compact.edgeEnd(v); ++e) {
+        graph.addEdge(compact.valueOf(v),
+            compact.valueOf(compact.target(e)));
+      }
+    }
+    sequential = StronglyConnectedComponents.getStronglyConnectedComponents(
+        graph, false);
+    parallel = StronglyConnectedComponents.getStronglyConnectedComponents(
+        graph, true);
+    assertSameComponents(graph.getCompactGraph(),
+        positions(graph.getCompactGraph(), sequential),
+        positions(graph.getCompactGraph(), parallel));
+  }
+}
@@ -0,0 +1,76 @@
+package com.uniquepaths.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PathFinderTest {
+
+  /**
+   * Counts the paths along the chain <code>0 -> 1 <-> 2 -> 3 <-> 4 ->
+   * 5</code>, whose two 2-cycles report <code>first</code> and
+   * <code>second</code> internal paths of average length 3.
+   */
+  private static double[] countChain(double first, double second) {
+    List<Edge<Integer>> edges = new ArrayList<>();
+    List<Integer> vertices = Arrays.asList(0, 1, 2, 3, 4, 5);
+    CompactGraph<Integer> graph;
+    int[] component;
+    int[] order = new int[4];
+    List<SCC<Integer>> sccs = new ArrayList<>();
+    SCC<Integer> scc;
+    edges.add(new Edge<>(0, 1, 1));
+    edges.add(new Edge<>(1, 2, 1));
+    edges.add(new Edge<>(2, 1, 1));
+    edges.add(new Edge<>(2, 3, 1));
+    edges.add(new Edge<>(3, 4, 1));
+    edges.add(new Edge<>(4, 3, 1));
+    edges.add(new Edge<>(4, 5, 1));
+    graph = CompactGraph.fromEdges(vertices, edges);
+    component = StronglyConnectedComponents.getComponentIds(graph);
+    for (int c = 0; c < 4; ++c) {
+      sccs.add(new SCC<Integer>());
+    }
+    for (int v = 0; v < 6; ++v) {
+      scc = sccs.get(component[v]);
+      scc.addInNode(v);
+      scc.addOutNode(v);
+    }
+    sccs.get(component[1]).setTotalNumberPaths(first);
+    sccs.get(component[1]).setTotalAvgPathLength(3.0);
+    sccs.get(component[3]).setTotalNumberPaths(second);
+    sccs.get(component[3]).setTotalAvgPathLength(3.0);
+    order[0] = component[0];
+    order[1] = component[1];
+    order[2] = component[3];
+    order[3] = component[5];
+    return PathFinder.countPaths(new Condensation<>(graph, component, 4),
+        sccs, order, component[0], component[5]);
+  }
+
+  @Test
+  public void countsExactlyWithinALong() {
+    double[] result = countChain(6.0, 7.0);
+    assertEquals(42.0, result[0], 0.0);
+    assertEquals(9.0, result[1], 1e-12);
+    assertEquals(Math.log(42.0), result[2], 1e-12);
+  }
+
+  @Test
+  public void keepsComponentCountsBeyondALong() {
+    // About the paths between two vertices of a complete digraph on 25
+    // vertices, which the chain multiplies past a long again.
+    double internal = 7.03e22;
+    double[] result = countChain(internal, 1e6);
+    assertEquals(internal * 1e6, result[0], internal * 1e6 * 1e-12);
+    assertEquals(9.0, result[1], 1e-12);
+    assertEquals(Math.log(internal) + Math.log(1e6), result[2], 1e-12);
+    result = countChain(internal, 1.0);
+    assertEquals(internal, result[0], internal * 1e-12);
+    assertEquals(Math.log(internal), result[2], 1e-12);
+  }
+}